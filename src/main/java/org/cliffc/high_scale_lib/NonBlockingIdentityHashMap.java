@@ -113,7 +113,7 @@ public class NonBlockingIdentityHashMap<TypeK, TypeV>
   private static final long _kvs_offset;
   static {                      // <clinit>
     Field f = null;
-    try { f = NonBlockingHashMap.class.getDeclaredField("_kvs"); }
+    try { f = NonBlockingIdentityHashMap.class.getDeclaredField("_kvs"); }
     catch( java.lang.NoSuchFieldException e ) { throw new RuntimeException(e); }
     _kvs_offset = _unsafe.objectFieldOffset(f);
   }
@@ -32,20 +32,22 @@ import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 
-import rubah.Rubah;
 import rubah.framework.Clazz;
 import rubah.framework.Field;
 import rubah.framework.Method;
 import rubah.framework.Namespace;
 import rubah.framework.Type;
 import rubah.runtime.Version;
+import rubah.runtime.state.migrator.UnsafeUtils;
 import sun.misc.Unsafe;
 
 public class AddGettersAndSetters extends RubahTransformer {
 	public static final String GETTER_PREFFIX = "$GET$";
 	public static final String SETTER_PREFFIX = "$SET$";
+	public static final String OFFSET_PREFFIX = "$OFFSET$";
 	private static final int ACCESS = ACC_PUBLIC | ACC_SYNTHETIC;
 	private static final Type UNSAFE_TYPE = Type.getType(Unsafe.class);
+	private static final Type UNSAFE_UTILS_TYPE = Type.getType(UnsafeUtils.class);
 	private static final Type STRING_TYPE = Type.getType(String.class);
 	private static final Type CLASS_TYPE = Type.getType(Class.class);
 	private static final Type FIELD_TYPE = Type.getType(java.lang.reflect.Field.class);
@@ -309,6 +311,11 @@ public class AddGettersAndSetters extends RubahTransformer {
 		if (this.foundGettersSetters.contains(setterName))
 			return;
 
+		if (!isStatic) {
+			this.generateCachedFinalSetter(setterName, name, owner, type);
+			return;
+		}
+
 		int fieldLocal = 1 + type.getASMType().getSize();
 		int  unsafeLocal = fieldLocal + 1;
 
@@ -335,46 +342,28 @@ public class AddGettersAndSetters extends RubahTransformer {
 				Type.getMethodDescriptor(FIELD_TYPE, STRING_TYPE),
 				false);
 		mv.visitVarInsn(ASTORE, fieldLocal);
-		mv.visitMethodInsn(
-				INVOKESTATIC,
-				Type.getType(Rubah.class).getInternalName(),
-				"getUnsafe",
-				Type.getMethodDescriptor(UNSAFE_TYPE),
-				false);
+		getUnsafe(mv);
 		mv.visitVarInsn(ASTORE, unsafeLocal);
 		mv.visitVarInsn(ALOAD, unsafeLocal);
 
 
-		if (isStatic) {
-			mv.visitVarInsn(ALOAD, unsafeLocal);
-			mv.visitVarInsn(ALOAD, fieldLocal);
-			mv.visitMethodInsn(
-					INVOKEVIRTUAL,
-					UNSAFE_TYPE.getInternalName(),
-					"staticFieldBase",
-					"(Ljava/lang/reflect/Field;)Ljava/lang/Object;",
-					false);
-			mv.visitVarInsn(ALOAD, unsafeLocal);
-			mv.visitVarInsn(ALOAD, fieldLocal);
-			mv.visitMethodInsn(
-					INVOKEVIRTUAL,
-					UNSAFE_TYPE.getInternalName(),
-					"staticFieldOffset",
-					Type.getMethodDescriptor(Type.LONG_TYPE, FIELD_TYPE),
-					false);
-			mv.visitVarInsn(type.getASMType().getOpcode(ILOAD), 0);
-		} else {
-			mv.visitVarInsn(ALOAD, 0);
-			mv.visitVarInsn(ALOAD, unsafeLocal);
-			mv.visitVarInsn(ALOAD, fieldLocal);
-			mv.visitMethodInsn(
-					INVOKEVIRTUAL,
-					UNSAFE_TYPE.getInternalName(),
-					"objectFieldOffset",
-					Type.getMethodDescriptor(Type.LONG_TYPE, FIELD_TYPE),
-					false);
-			mv.visitVarInsn(type.getASMType().getOpcode(ILOAD), 1);
-		}
+		mv.visitVarInsn(ALOAD, unsafeLocal);
+		mv.visitVarInsn(ALOAD, fieldLocal);
+		mv.visitMethodInsn(
+				INVOKEVIRTUAL,
+				UNSAFE_TYPE.getInternalName(),
+				"staticFieldBase",
+				"(Ljava/lang/reflect/Field;)Ljava/lang/Object;",
+				false);
+		mv.visitVarInsn(ALOAD, unsafeLocal);
+		mv.visitVarInsn(ALOAD, fieldLocal);
+		mv.visitMethodInsn(
+				INVOKEVIRTUAL,
+				UNSAFE_TYPE.getInternalName(),
+				"staticFieldOffset",
+				Type.getMethodDescriptor(Type.LONG_TYPE, FIELD_TYPE),
+				false);
+		mv.visitVarInsn(type.getASMType().getOpcode(ILOAD), 0);
 
 		this.generatePutObjectInvocation(mv, type.getASMType());
 
@@ -401,6 +390,93 @@ public class AddGettersAndSetters extends RubahTransformer {
 		mv.visitEnd();
 	}
 
+	/**
+	 * Instance final fields are set on every converted object, so look up
+	 * the field offset once and keep it in a static field of this class
+	 */
+	private void generateCachedFinalSetter(String setterName, String name, Clazz owner, Clazz type) {
+		String offsetName = OFFSET_PREFFIX + setterName.substring(SETTER_PREFFIX.length());
+		String thisName = this.thisClass.getASMType().getInternalName();
+
+		// Not final, 0 until the first call since no field lives at offset 0
+		FieldVisitor fv = super.visitField(
+				ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC,
+				offsetName,
+				Type.LONG_TYPE.getDescriptor(),
+				null,
+				null);
+		if (fv != null)
+			fv.visitEnd();
+
+		int offsetLocal = 1 + type.getASMType().getSize();
+		int exceptionLocal = offsetLocal + 2;
+
+		MethodVisitor	mv = this.visitMethod(
+				ACCESS,
+				setterName,
+				Type.getMethodDescriptor(Type.VOID_TYPE, type.getASMType()),
+				null,
+				null);
+		mv.visitCode();
+		Label l0 = new Label();
+		Label l1 = new Label();
+		Label l2 = new Label();
+		Label l3 = new Label();
+		mv.visitTryCatchBlock(l0, l1, l2, "java/lang/NoSuchFieldException");
+		mv.visitFieldInsn(GETSTATIC, thisName, offsetName, Type.LONG_TYPE.getDescriptor());
+		mv.visitVarInsn(LSTORE, offsetLocal);
+		mv.visitVarInsn(LLOAD, offsetLocal);
+		mv.visitInsn(LCONST_0);
+		mv.visitInsn(LCMP);
+		mv.visitJumpInsn(IFNE, l3);
+		mv.visitLabel(l0);
+		getUnsafe(mv);
+		mv.visitLdcInsn(owner.getASMType().getASMType());
+		mv.visitLdcInsn(name);
+		mv.visitMethodInsn(
+				INVOKEVIRTUAL,
+				CLASS_TYPE.getInternalName(),
+				"getDeclaredField",
+				Type.getMethodDescriptor(FIELD_TYPE, STRING_TYPE),
+				false);
+		mv.visitMethodInsn(
+				INVOKEVIRTUAL,
+				UNSAFE_TYPE.getInternalName(),
+				"objectFieldOffset",
+				Type.getMethodDescriptor(Type.LONG_TYPE, FIELD_TYPE),
+				false);
+		mv.visitVarInsn(LSTORE, offsetLocal);
+		mv.visitLabel(l1);
+		// Racing threads store the same offset
+		mv.visitVarInsn(LLOAD, offsetLocal);
+		mv.visitFieldInsn(PUTSTATIC, thisName, offsetName, Type.LONG_TYPE.getDescriptor());
+		mv.visitLabel(l3);
+		getUnsafe(mv);
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitVarInsn(LLOAD, offsetLocal);
+		mv.visitVarInsn(type.getASMType().getOpcode(ILOAD), 1);
+		this.generatePutObjectInvocation(mv, type.getASMType());
+		mv.visitInsn(RETURN);
+		mv.visitLabel(l2);
+		mv.visitVarInsn(ASTORE, exceptionLocal);
+		mv.visitTypeInsn(NEW, "java/lang/Error");
+		mv.visitInsn(DUP);
+		mv.visitVarInsn(ALOAD, exceptionLocal);
+		mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Error", "<init>", "(Ljava/lang/Throwable;)V",false);
+		mv.visitInsn(ATHROW);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static void getUnsafe(MethodVisitor mv) {
+		mv.visitMethodInsn(
+				INVOKESTATIC,
+				UNSAFE_UTILS_TYPE.getInternalName(),
+				"getUnsafe",
+				Type.getMethodDescriptor(UNSAFE_TYPE),
+				false);
+	}
+
 	private void generatePutObjectInvocation(MethodVisitor mv, Type type) {
 		Pair<String, Type> result = putInvocationMap.get(type.getSort());
 		if (result == null) {
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.bytecode.transformers;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import rubah.Rubah;
+import rubah.framework.Type;
+import rubah.runtime.RubahRuntime;
+import rubah.runtime.UpdatePoints;
+import rubah.tools.BootstrapJarProcessor;
+
+/**
+ * Turns calls to Rubah.update into invokedynamic sites linked by UpdatePoints.
+ *
+ * Only classes of version 1.7 or later are rewritten, older classes keep the
+ * static call. Raising their version would make the split verifier demand
+ * stack map frames, which the loader does not write. Classes of version 1.7 or
+ * later already need -noverify for the same reason.
+ */
+public class InvokeDynamicUpdatePoints extends ClassVisitor implements Opcodes {
+	private static final String UPDATE_NAME = "update";
+	private static final String UPDATE_DESC = Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(String.class));
+	private static final String RUBAH_NAME = Type.getType(Rubah.class).getInternalName();
+	private static final String RUBAH_RUNTIME_NAME = Type.getType(RubahRuntime.class).getInternalName();
+	private static final Handle BOOTSTRAP = new Handle(
+			H_INVOKESTATIC,
+			Type.getType(UpdatePoints.class).getInternalName(),
+			UpdatePoints.BOOTSTRAP_NAME,
+			UpdatePoints.BOOTSTRAP_DESC);
+	private boolean invokeDynamic;
+
+	public InvokeDynamicUpdatePoints(ClassVisitor cv) {
+		super(BootstrapJarProcessor.ASM5, cv);
+	}
+
+	@Override
+	public void visit(int version, int access, String name,
+			String signature, String superName, String[] interfaces) {
+		// invokedynamic needs version >= 1.7
+		this.invokeDynamic = ((version & 0xFFFF) >= V1_7);
+		super.visit(version, access, name, signature, superName, interfaces);
+	}
+
+	@Override
+	public MethodVisitor visitMethod(int access, String name, String desc,
+			String signature, String[] exceptions) {
+		MethodVisitor methodVisitor = super.visitMethod(access, name, desc, signature, exceptions);
+
+		if (!this.invokeDynamic)
+			return methodVisitor;
+
+		return new MethodVisitor(BootstrapJarProcessor.ASM5, methodVisitor) {
+			@Override
+			public void visitMethodInsn(int opcode, String owner, String name,
+					String desc, boolean itf) {
+				if (opcode == INVOKESTATIC &&
+						name.equals(UPDATE_NAME) &&
+						desc.equals(UPDATE_DESC) &&
+						(owner.equals(RUBAH_NAME) || owner.equals(RUBAH_RUNTIME_NAME))) {
+					super.visitInvokeDynamicInsn(UPDATE_NAME, UPDATE_DESC, BOOTSTRAP);
+					return;
+				}
+
+				super.visitMethodInsn(opcode, owner, name, desc, itf);
+			}
+		};
+	}
+}
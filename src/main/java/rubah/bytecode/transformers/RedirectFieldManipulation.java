@@ -21,24 +21,35 @@
 package rubah.bytecode.transformers;
 
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.InsnList;
-import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 import org.objectweb.asm.tree.analysis.Analyzer;
@@ -49,20 +60,33 @@ import org.objectweb.asm.tree.analysis.SourceValue;
 import org.objectweb.asm.util.Textifier;
 import org.objectweb.asm.util.TraceMethodVisitor;
 
-import rubah.Rubah;
-import rubah.bytecode.RubahProxy;
 import rubah.framework.Clazz;
 import rubah.framework.Method;
 import rubah.framework.Namespace;
 import rubah.framework.Type;
+import rubah.runtime.ProxyChecks;
 import rubah.runtime.Version;
 
+import com.sun.management.HotSpotDiagnosticMXBean;
+
 public class RedirectFieldManipulation extends RubahTransformer {
+	public static final String SIZE_STATS_PROPERTY = "rubah.redirectSizeStats";
+	private static final boolean SIZE_STATS = Boolean.getBoolean(SIZE_STATS_PROPERTY);
+	private static final String PROXY_CHECKS_NAME = Type.getType(ProxyChecks.class).getInternalName();
+	private static final String ENSURE_NOT_PROXY_DESC = Type.getMethodDescriptor(Type.getType(Object.class), Type.getType(Object.class));
 	private static final HashSet<MethodInvocationInfo> ensureNotProxyMethods =
 			new HashSet<MethodInvocationInfo>(Arrays.asList(new MethodInvocationInfo[]{
 				new MethodInvocationInfo("getClass", Object.class, Class.class),
 			}));
+	private static final Handle CHECK_BOOTSTRAP = new Handle(
+			H_INVOKESTATIC,
+			Type.getType(ProxyChecks.class).getInternalName(),
+			ProxyChecks.BOOTSTRAP_NAME,
+			ProxyChecks.BOOTSTRAP_DESC);
+	// Off in tests, to check the local walk against the full analysis
+	/*default*/ static boolean localSources = true;
 	private Version version;
+	private boolean invokeDynamic;
 
 	public RedirectFieldManipulation(HashMap<String, Object> objectsMap,
 			Version version, ClassVisitor visitor) {
@@ -79,6 +103,15 @@ public class RedirectFieldManipulation extends RubahTransformer {
 		super(null, namespace, visitor);
 	}
 
+	@Override
+	public void visit(int version, int access, String name, String signature,
+			String superName, String[] interfaces) {
+		// invokedynamic needs version >= 1.7, raising older classes would need
+		// stack map frames that the loader does not write
+		this.invokeDynamic = (ProxyChecks.INVOKE_DYNAMIC && (version & 0xFFFF) >= V1_7);
+		super.visit(version, access, name, signature, superName, interfaces);
+	}
+
 	@Override
 	public MethodVisitor visitMethod(int access, String name,
 			final String desc, String signature, String[] exceptions) {
@@ -110,23 +143,33 @@ public class RedirectFieldManipulation extends RubahTransformer {
 		MethodVisitor ret =  new MethodNode(ASM5, access, name, desc, signature, exceptions) {
 			private Frame<SourceValue>[] sourcesFrames;
 			private boolean isStatic = Modifier.isStatic(access);
+			private boolean hasCandidates = false;
+			private Set<LabelNode> jumpTargets;
 
 			@Override
-			public void visitEnd() {
-				Analyzer<SourceValue> sourceAnalyzer = new Analyzer<SourceValue>(
-						new SourceInterpreter());
+			public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+				if (opcode == GETFIELD || opcode == PUTFIELD)
+					this.hasCandidates = true;
+				super.visitFieldInsn(opcode, owner, name, desc);
+			}
 
-				try {
-					sourceAnalyzer.analyze(thisClass.getASMType().getInternalName(), this);
-				} catch (AnalyzerException e) {
-					System.out.println(namespace.isBootstrap(thisClass));
-					System.out.println(e.getMessage());
-					this.sourcesFrames = sourceAnalyzer.getFrames();
-					this.printAnalyzerResult();
-					throw new Error(e);
+			@Override
+			public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+				if (opcode == INVOKESPECIAL
+						|| (opcode == INVOKEVIRTUAL && ensureNotProxyMethods.contains(new MethodInvocationInfo(name, owner, desc))))
+					this.hasCandidates = true;
+				super.visitMethodInsn(opcode, owner, name, desc, itf);
+			}
+
+			@Override
+			public void visitEnd() {
+				if (!this.hasCandidates) {
+					// Nothing to redirect, skip the dataflow analysis
+					accept(methodVisitor);
+					return;
 				}
 
-				this.sourcesFrames = sourceAnalyzer.getFrames();
+				int sizeBefore = (SIZE_STATS ? this.getCodeSize() : 0);
 
 				ListIterator<AbstractInsnNode> iter = this.instructions.iterator();
 				HashMap<AbstractInsnNode, InsnList> instructionsToAddBefore = new HashMap<AbstractInsnNode, InsnList>();
@@ -213,29 +256,44 @@ public class RedirectFieldManipulation extends RubahTransformer {
 				for (Entry<AbstractInsnNode, AbstractInsnNode> entry : instructionsToReplace.entrySet())
 					this.instructions.set(entry.getKey(), entry.getValue());
 
+				if (SIZE_STATS)
+					SizeStats.record(thisClass.getFqn() + "." + this.name + this.desc, sizeBefore, this.getCodeSize());
+
 				accept(methodVisitor);
 			}
 
+			private int getCodeSize() {
+				CodeSizeEvaluator evaluator = new CodeSizeEvaluator(null);
+				this.instructions.accept(evaluator);
+				return evaluator.getMaxSize();
+			}
+
 			private InsnList ensureNotProxy() {
 				return this.ensureNotProxy(null);
 			}
 
 			private InsnList ensureNotProxy(String owner) {
 				InsnList list = new InsnList();
-				LabelNode label = new LabelNode();
-				list.add(new InsnNode(DUP));
-				list.add(new TypeInsnNode(INSTANCEOF, Type.getType(RubahProxy.class).getInternalName()));
-				list.add(new JumpInsnNode(IFEQ, label));
-				list.add(new TypeInsnNode(CHECKCAST, Type.getType(RubahProxy.class).getInternalName()));
+
+				if (invokeDynamic) {
+					// Linked per class, left out while no proxies of that class can exist
+					String checked = Type.getObjectType(owner == null ? Type.getType(Object.class).getInternalName() : owner).getDescriptor();
+					list.add(new InvokeDynamicInsnNode(
+							ProxyChecks.CHECK_NAME,
+							"(" + checked + ")" + checked,
+							CHECK_BOOTSTRAP));
+					return list;
+				}
+
+				// Out of line, so that the caller grows by a call instead of the whole check
 				list.add(new MethodInsnNode(
 						INVOKESTATIC,
-						Type.getType(Rubah.class).getInternalName(),
-						"getConverted",
-						Type.getMethodDescriptor(Type.getType(Object.class), Type.getType(Object.class)),
+						PROXY_CHECKS_NAME,
+						ProxyChecks.CHECK_NAME,
+						ENSURE_NOT_PROXY_DESC,
 						false));
 				if (owner != null)
 					list.add(new TypeInsnNode(CHECKCAST, owner));
-				list.add(label);
 
 				return list;
 			}
@@ -254,13 +312,150 @@ public class RedirectFieldManipulation extends RubahTransformer {
 
 			}
 
+			private Frame<SourceValue>[] getFrames() {
+				if (this.sourcesFrames != null)
+					return this.sourcesFrames;
+
+				Analyzer<SourceValue> sourceAnalyzer = new Analyzer<SourceValue>(
+						new SourceInterpreter());
+
+				try {
+					sourceAnalyzer.analyze(thisClass.getASMType().getInternalName(), this);
+				} catch (AnalyzerException e) {
+					System.out.println(namespace.isBootstrap(thisClass));
+					System.out.println(e.getMessage());
+					this.sourcesFrames = sourceAnalyzer.getFrames();
+					this.printAnalyzerResult();
+					throw new Error(e);
+				}
+
+				this.sourcesFrames = sourceAnalyzer.getFrames();
+
+				return this.sourcesFrames;
+			}
+
+			/**
+			 * Finds the source of the value at depth without the analyzer, walking
+			 * back through straight-line code that no jump can enter
+			 * @return The instruction that pushed the value, null if the analyzer is needed
+			 */
+			private AbstractInsnNode getLocalSource(AbstractInsnNode insnNode, int depth) {
+				AbstractInsnNode insn = this.getStraightLinePrevious(insnNode);
+
+				while (insn != null) {
+					int opcode = insn.getOpcode();
+
+					if (opcode == DUP) {
+						// Both copies come from the value below
+						depth = (depth > 1 ? depth - 1 : 0);
+					} else if (opcode == DUP_X1) {
+						// v2 v1 -> v1 v2 v1, the analyzer sees the copy below v2 as coming from DUP_X1
+						if (depth == 2)
+							return (this.isReachable(insn) ? insn : null);
+						depth = (depth > 2 ? depth - 1 : depth);
+					} else {
+						int popped = getPopped(insn);
+						int pushed = getPushed(insn);
+						if (popped < 0 || pushed < 0)
+							return null;
+
+						if (depth >= pushed) {
+							depth += popped - pushed;
+						} else if (opcode == ALOAD && isLocalVar(((VarInsnNode) insn).var)) {
+							// Only the closest ASTORE reaches here
+							int var = ((VarInsnNode) insn).var;
+							do {
+								insn = this.getStraightLinePrevious(insn);
+							} while (insn != null && !(insn.getOpcode() == ASTORE && ((VarInsnNode) insn).var == var));
+
+							if (insn == null)
+								return null;
+							depth = 0;
+						} else if (opcode == CHECKCAST) {
+							depth = 0;
+						} else {
+							return (this.isReachable(insn) ? insn : null);
+						}
+					}
+
+					insn = this.getStraightLinePrevious(insn);
+				}
+
+				return null;
+			}
+
+			// Previous instruction, null if control can reach insn from anywhere else
+			private AbstractInsnNode getStraightLinePrevious(AbstractInsnNode insn) {
+				for (insn = insn.getPrevious(); insn != null; insn = insn.getPrevious()) {
+					switch (insn.getType()) {
+						case AbstractInsnNode.LINE:
+						case AbstractInsnNode.FRAME:
+							continue;
+						case AbstractInsnNode.LABEL:
+							if (this.getJumpTargets().contains(insn))
+								return null;
+							continue;
+					}
+
+					return (fallsThrough(insn.getOpcode()) ? insn : null);
+				}
+
+				return null;
+			}
+
+			// Code after a jump without a label is unreachable, the analyzer leaves it alone
+			private boolean isReachable(AbstractInsnNode insn) {
+				for (insn = insn.getPrevious(); insn != null; insn = insn.getPrevious()) {
+					if (insn.getType() == AbstractInsnNode.LABEL && this.getJumpTargets().contains(insn))
+						return true;
+					if (insn.getOpcode() >= 0)
+						return fallsThrough(insn.getOpcode());
+				}
+
+				return true;
+			}
+
+			private Set<LabelNode> getJumpTargets() {
+				if (this.jumpTargets != null)
+					return this.jumpTargets;
+
+				this.jumpTargets = new HashSet<LabelNode>();
+
+				for (TryCatchBlockNode tryCatch : this.tryCatchBlocks)
+					this.jumpTargets.add(tryCatch.handler);
+
+				ListIterator<AbstractInsnNode> iter = this.instructions.iterator();
+				while (iter.hasNext()) {
+					AbstractInsnNode insn = iter.next();
+					switch (insn.getType()) {
+						case AbstractInsnNode.JUMP_INSN:
+							this.jumpTargets.add(((JumpInsnNode) insn).label);
+							break;
+						case AbstractInsnNode.TABLESWITCH_INSN:
+							this.jumpTargets.add(((TableSwitchInsnNode) insn).dflt);
+							this.jumpTargets.addAll(((TableSwitchInsnNode) insn).labels);
+							break;
+						case AbstractInsnNode.LOOKUPSWITCH_INSN:
+							this.jumpTargets.add(((LookupSwitchInsnNode) insn).dflt);
+							this.jumpTargets.addAll(((LookupSwitchInsnNode) insn).labels);
+							break;
+					}
+				}
+
+				return this.jumpTargets;
+			}
+
 			private Set<AbstractInsnNode> getSources(AbstractInsnNode insnNode, int depth) {
+				AbstractInsnNode source = (localSources ? this.getLocalSource(insnNode, depth) : null);
+				if (source != null)
+					return Collections.singleton(source);
+
 				return this.getSources(insnNode, depth, new HashSet<AbstractInsnNode>(), new HashSet<AbstractInsnNode>());
 			}
 
 			private Set<AbstractInsnNode> getSources(AbstractInsnNode insnNode, int depth, HashSet<AbstractInsnNode> allSources, HashSet<AbstractInsnNode> alreadySeen) {
 				int idx = this.instructions.indexOf(insnNode);
-				Frame<SourceValue> sourcesFrame = this.sourcesFrames[idx];
+				Frame<SourceValue> sourcesFrame = this.getFrames()[idx];
 				if (sourcesFrame == null) {
 					// Bug in the analyzer or unreachable code
 					return new HashSet<AbstractInsnNode>();
@@ -366,6 +561,143 @@ public class RedirectFieldManipulation extends RubahTransformer {
 		return ret;
 	}
 
+	// Stack values (not slots) popped by insn, -1 if it shuffles the stack
+	private static int getPopped(AbstractInsnNode insn) {
+		int opcode = insn.getOpcode();
+
+		switch (insn.getType()) {
+			case AbstractInsnNode.METHOD_INSN:
+				return Type.getArgumentTypes(((MethodInsnNode) insn).desc).length + (opcode == INVOKESTATIC ? 0 : 1);
+			case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+				return Type.getArgumentTypes(((InvokeDynamicInsnNode) insn).desc).length;
+			case AbstractInsnNode.MULTIANEWARRAY_INSN:
+				return ((MultiANewArrayInsnNode) insn).dims;
+		}
+
+		if (opcode >= IALOAD && opcode <= SALOAD)
+			return 2;
+		if (opcode >= IASTORE && opcode <= SASTORE)
+			return 3;
+		if (opcode >= IADD && opcode <= DREM)
+			return 2;
+		if (opcode >= ISHL && opcode <= LXOR)
+			return 2;
+		if (opcode >= LCMP && opcode <= DCMPG)
+			return 2;
+		if (opcode >= IF_ICMPEQ && opcode <= IF_ACMPNE)
+			return 2;
+		if ((opcode >= ISTORE && opcode <= ASTORE)
+				|| (opcode >= INEG && opcode <= DNEG)
+				|| (opcode >= I2L && opcode <= I2S)
+				|| (opcode >= IFEQ && opcode <= IFLE))
+			return 1;
+
+		switch (opcode) {
+			case PUTFIELD:
+				return 2;
+			case POP:
+			case PUTSTATIC:
+			case GETFIELD:
+			case NEWARRAY:
+			case ANEWARRAY:
+			case ARRAYLENGTH:
+			case CHECKCAST:
+			case INSTANCEOF:
+			case MONITORENTER:
+			case MONITOREXIT:
+			case IFNULL:
+			case IFNONNULL:
+				return 1;
+			case NOP:
+			case ACONST_NULL:
+			case ICONST_M1:
+			case ICONST_0:
+			case ICONST_1:
+			case ICONST_2:
+			case ICONST_3:
+			case ICONST_4:
+			case ICONST_5:
+			case LCONST_0:
+			case LCONST_1:
+			case FCONST_0:
+			case FCONST_1:
+			case FCONST_2:
+			case DCONST_0:
+			case DCONST_1:
+			case BIPUSH:
+			case SIPUSH:
+			case LDC:
+			case ILOAD:
+			case LLOAD:
+			case FLOAD:
+			case DLOAD:
+			case ALOAD:
+			case IINC:
+			case GETSTATIC:
+			case NEW:
+				return 0;
+			default:
+				// DUP_X2, DUP2, SWAP, ... depend on the type of the values
+				return -1;
+		}
+	}
+
+	// Stack values (not slots) pushed by insn, -1 if it shuffles the stack
+	private static int getPushed(AbstractInsnNode insn) {
+		int opcode = insn.getOpcode();
+
+		switch (insn.getType()) {
+			case AbstractInsnNode.METHOD_INSN:
+				return (((MethodInsnNode) insn).desc.endsWith(")V") ? 0 : 1);
+			case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+				return (((InvokeDynamicInsnNode) insn).desc.endsWith(")V") ? 0 : 1);
+		}
+
+		int popped = getPopped(insn);
+		if (popped < 0)
+			return -1;
+
+		if ((opcode >= ISTORE && opcode <= ASTORE)
+				|| (opcode >= IASTORE && opcode <= SASTORE)
+				|| (opcode >= IFEQ && opcode <= IF_ACMPNE))
+			return 0;
+
+		switch (opcode) {
+			case NOP:
+			case POP:
+			case IINC:
+			case PUTFIELD:
+			case PUTSTATIC:
+			case MONITORENTER:
+			case MONITOREXIT:
+			case IFNULL:
+			case IFNONNULL:
+				return 0;
+			default:
+				return 1;
+		}
+	}
+
+	private static boolean fallsThrough(int opcode) {
+		switch (opcode) {
+			case GOTO:
+			case JSR:
+			case RET:
+			case TABLESWITCH:
+			case LOOKUPSWITCH:
+			case IRETURN:
+			case LRETURN:
+			case FRETURN:
+			case DRETURN:
+			case ARETURN:
+			case RETURN:
+			case ATHROW:
+				return false;
+			default:
+				return true;
+		}
+	}
+
 	private Type findActualFieldOwner(Type start, String fieldName) {
 		Clazz c = this.namespace.getClass(start);
 
@@ -381,6 +713,61 @@ public class RedirectFieldManipulation extends RubahTransformer {
 		return start;
 	}
 
+	// Bytecode growth of the methods that this transformer rewrites, reported at exit
+	private static class SizeStats {
+		private static final int MAX_REPORTED = 20;
+		private static final List<Object[]> grown = new ArrayList<Object[]>();
+		private static long methods, bytesBefore, bytesAfter;
+		private static final int maxInlineSize = getVMOption("MaxInlineSize", 35);
+		private static final int freqInlineSize = getVMOption("FreqInlineSize", 325);
+
+		static {
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					report();
+				}
+			});
+		}
+
+		private static int getVMOption(String name, int defaultValue) {
+			try {
+				return Integer.parseInt(ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class).getVMOption(name).getValue());
+			} catch (RuntimeException e) {
+				return defaultValue;
+			}
+		}
+
+		private static synchronized void record(String method, int before, int after) {
+			methods++;
+			bytesBefore += before;
+			bytesAfter += after;
+
+			if (after > before && ((before <= freqInlineSize && after > freqInlineSize) || (before <= maxInlineSize && after > maxInlineSize)))
+				grown.add(new Object[]{ method, before, after });
+		}
+
+		private static synchronized void report() {
+			int pastFreq = 0;
+			for (Object[] m : grown)
+				if ((Integer) m[2] > freqInlineSize)
+					pastFreq++;
+
+			System.out.println("Redirected field accesses in " + methods + " methods, " + bytesBefore + " -> " + bytesAfter + " bytes of bytecode");
+			System.out.println((grown.size() - pastFreq) + " methods grew past MaxInlineSize (" + maxInlineSize + "), " + pastFreq + " past FreqInlineSize (" + freqInlineSize + ")");
+
+			Collections.sort(grown, new Comparator<Object[]>() {
+				@Override
+				public int compare(Object[] o1, Object[] o2) {
+					return ((Integer) o2[2] - (Integer) o2[1]) - ((Integer) o1[2] - (Integer) o1[1]);
+				}
+			});
+
+			for (Object[] m : grown.subList(0, Math.min(MAX_REPORTED, grown.size())))
+				System.out.println("\t" + m[0] + ": " + m[1] + " -> " + m[2]);
+		}
+	}
+
 	private static final class MethodInvocationInfo {
 		private final String name;
 		private final String owner;
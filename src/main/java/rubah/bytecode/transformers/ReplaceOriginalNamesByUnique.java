@@ -20,9 +20,9 @@
  *******************************************************************************/
 package rubah.bytecode.transformers;
 
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Random;
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.FieldVisitor;
@@ -36,10 +36,16 @@ import rubah.framework.Namespace;
 import rubah.framework.Type;
 
 public class ReplaceOriginalNamesByUnique extends ClassVisitor implements Opcodes {
+	// Not a valid Java identifier, so it does not clash with names from javac
+	private static final String UNIQUE_PREFIX = "rubah-";
+	private static volatile String[] uniqueNames = new String[0];
+	private static AtomicInteger nextGlobalName = new AtomicInteger();
 	protected HashMap<Object, String> namesMap;
 	protected HashMap<String, Object> objectsMap;
 	private Clazz thisClass;
 	private Namespace namespace;
+	// Names only need to be unique within one transformation
+	private int nextName = 0;
 
 	public ReplaceOriginalNamesByUnique(HashMap<Object, String> namesMap,
 			HashMap<String, Object> objectsMap, Namespace namespace, ClassVisitor visitor) {
@@ -56,7 +62,7 @@ public class ReplaceOriginalNamesByUnique extends ClassVisitor implements Opcode
 			return name;
 		}
 
-		name = generateUniqueName();
+		name = getUniqueName(this.nextName++);
 
 		this.namesMap.put(obj, name);
 		this.objectsMap.put(name, obj);
@@ -64,10 +70,29 @@ public class ReplaceOriginalNamesByUnique extends ClassVisitor implements Opcode
 		return name;
 	}
 
-	private static Random r = new Random();
-
 	public static String generateUniqueName() {
-		return new UUID(r.nextLong(), r.nextLong()).toString();
+		return UNIQUE_PREFIX + "g" + nextGlobalName.getAndIncrement();
+	}
+
+	// Shared by all transformations, so that each name is built and hashed once
+	private static String getUniqueName(int idx) {
+		String[] names = uniqueNames;
+
+		if (idx < names.length)
+			return names[idx];
+
+		synchronized (ReplaceOriginalNamesByUnique.class) {
+			names = uniqueNames;
+			if (idx >= names.length) {
+				String[] grown = Arrays.copyOf(names, Math.max(idx + 1, names.length * 2));
+				for (int i = names.length ; i < grown.length ; i++)
+					grown[i] = UNIQUE_PREFIX + i;
+				uniqueNames = grown;
+				names = grown;
+			}
+		}
+
+		return names[idx];
 	}
 
 
@@ -106,13 +106,22 @@ public class UpdatableClassInfoGatherer extends BasicClassInfoGatherer {
 	}
 
 	public void computeOverloads() {
-		this.computeOverloads(computeSubClasses(this.namespace));
+		this.computeOverloads(computeSubClasses(this.namespace), null);
 	}
 
-	private void computeOverloads(HashMap<Clazz, List<Clazz>> subClasses) {
+	// Only for the hierarchies with the given roots
+	public void computeOverloads(Set<Clazz> roots) {
+		this.computeOverloads(computeSubClasses(this.namespace), roots);
+	}
+
+	private void computeOverloads(HashMap<Clazz, List<Clazz>> subClasses, Set<Clazz> roots) {
 		Map<Class<?>, Set<Method>> cache = new HashMap<Class<?>, Set<Method>>();
 
 		for (Clazz c : this.namespace.getDefinedClasses()) {
+			if (roots != null && !roots.contains(c)) {
+				continue;
+			}
+
 			if (!c.getParent().getNamespace().equals(this.namespace)) {
 				Map<Method, List<Method>> map = new HashMap<Method, List<Method>>();
 
@@ -20,20 +20,28 @@
  *******************************************************************************/
 package rubah.framework;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Clazz implements Comparable<Clazz> {
 	private String fqn;
-	private Clazz parent;
-	private Set<Field> fields = new HashSet<Field>();
-	private Set<Clazz> interfaces = new HashSet<Clazz>();
-	private Map<Method, Method> methods = new HashMap<Method, Method>();
+	// Concurrent, FallbackLoader adds members while classes are transformed in parallel
+	private volatile Clazz parent;
+	private Set<Field> fields = Collections.newSetFromMap(new ConcurrentHashMap<Field, Boolean>());
+	private Set<Clazz> interfaces = Collections.newSetFromMap(new ConcurrentHashMap<Clazz, Boolean>());
+	private Map<Method, Method> methods = new ConcurrentHashMap<Method, Method>();
 	private Type type;
-	private boolean iface = false;
+	private volatile boolean iface = false;
 	private Namespace namespace;
+	// Fills in the members from a version descriptor on first use
+	private Materializer materializer;
+	private volatile boolean materialized = true;
+
+	public static interface Materializer {
+		public void materialize(Clazz c);
+	}
 
 	/*default*/ Clazz(Type type, Namespace namespace) {
 		this.fqn = type.getClassName();
@@ -55,23 +63,50 @@ public class Clazz implements Comparable<Clazz> {
 		return this.type.hashCode() ^ this.namespace.hashCode();
 	}
 
+	public void setMaterializer(Materializer materializer) {
+		synchronized (this) {
+			this.materializer = materializer;
+			this.materialized = false;
+		}
+	}
+
+	private void materialize() {
+		if (this.materialized)
+			return;
+
+		// Transformers run in parallel, other threads wait for the members
+		synchronized (this) {
+			if (this.materializer != null) {
+				Materializer m = this.materializer;
+				// Setting the members calls back here, return straight away
+				this.materializer = null;
+				m.materialize(this);
+				this.materialized = true;
+			}
+		}
+	}
+
 	public String getFqn() {
 		return this.fqn;
 	}
 
 	public Clazz getParent() {
+		this.materialize();
 		return this.parent;
 	}
 
 	public void setParent(Clazz parent) {
+		this.materialize();
 		this.parent = parent;
 	}
 
 	public Set<Method> getMethods() {
+		this.materialize();
 		return this.methods.keySet();
 	}
 
 	public Method findMethod(Method m) {
+		this.materialize();
 		Method ret = this.methods.get(m);
 
 		if (ret != null)
@@ -84,10 +119,12 @@ public class Clazz implements Comparable<Clazz> {
 	}
 
 	public void addMethod(Method m) {
+		this.materialize();
 		this.methods.put(m, m);
 	}
 
 	public Set<Field> getFields() {
+		this.materialize();
 		return this.fields;
 	}
 
@@ -96,9 +133,9 @@ public class Clazz implements Comparable<Clazz> {
 		StringBuffer ret = new StringBuffer();
 
 		ret.append(this.fqn);
-		if (this.parent != null) {
+		if (this.getParent() != null) {
 			ret.append(" extends ");
-			ret.append(this.parent.fqn);
+			ret.append(this.getParent().fqn);
 		}
 
 		return ret.toString();
@@ -137,14 +174,17 @@ public class Clazz implements Comparable<Clazz> {
 	}
 
 	public void setInterface(boolean isInterface) {
+		this.materialize();
 		this.iface = isInterface;
 	}
 
 	public boolean isInterface() {
+		this.materialize();
 		return this.iface;
 	}
 
 	public Set<Clazz> getInterfaces() {
+		this.materialize();
 		return this.interfaces;
 	}
 
@@ -42,13 +42,13 @@ public class DelegatingNamespace extends Namespace {
 		Clazz ret;
 
 		if (type.isArray()) {
-			ret = this.definedClasses.get(type.getElementType().getClassName());
+			ret = this.definedClasses.get(type.getElementType());
 
 			if (ret != null) {
 				return new Clazz(type, this);
 			}
 		} else {
-			ret = this.definedClasses.get(type.getClassName());
+			ret = this.definedClasses.get(type);
 
 			if (ret != null) {
 				return ret;
@@ -21,16 +21,18 @@
 package rubah.framework;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import rubah.bytecode.transformers.ReplaceOriginalNamesByUnique;
 
 public class Namespace {
-	protected Map<String, Clazz> definedClasses = new HashMap<String, Clazz>();
-	private Set<Clazz> bootstrapClasses = new HashSet<>();
+	// Concurrent, classes are transformed in parallel
+	// Keyed by type, ASM hashes and compares descriptors in place, without building class names
+	protected ConcurrentMap<Type, Clazz> definedClasses = new ConcurrentHashMap<Type, Clazz>();
+	private Set<Clazz> bootstrapClasses = Collections.newSetFromMap(new ConcurrentHashMap<Clazz, Boolean>());
 
 	private static String DUMMY_PREFIX = "#";
 
@@ -52,12 +54,14 @@ public class Namespace {
 	}
 
 	public Clazz getClass(Type type, boolean isBootstrap) {
-		Clazz ret = this.definedClasses.get(type.getClassName());
+		Clazz ret = this.definedClasses.get(type);
 
 		if (ret == null) {
 			ret = new Clazz(type, this);
 			if (type.isPrimitive() || !type.getInternalName().startsWith(DUMMY_PREFIX)) {
-				this.definedClasses.put(type.getClassName(), ret);
+				Clazz existing = this.definedClasses.putIfAbsent(type, ret);
+				if (existing != null)
+					ret = existing;
 			}
 		}
 		if (isBootstrap)
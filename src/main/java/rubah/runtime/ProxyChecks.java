@@ -0,0 +1,206 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.runtime;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rubah.bytecode.RubahProxy;
+
+// Proxy checks that compile away while no proxies of the checked class can exist
+public class ProxyChecks {
+	// Classes older than 1.7 keep static checks, see RedirectFieldManipulation
+	public static final String INVOKE_DYNAMIC_PROPERTY = "rubah.invokeDynamicProxyChecks";
+	public static final boolean INVOKE_DYNAMIC = Boolean.getBoolean(INVOKE_DYNAMIC_PROPERTY);
+	public static final String CHECK_NAME = "ensureNotProxy";
+	public static final String BOOTSTRAP_NAME = "bootstrap";
+	public static final String BOOTSTRAP_DESC =
+			MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class).toMethodDescriptorString();
+	private static final AtomicLong installs = new AtomicLong();
+
+	private ProxyChecks() {
+		// Empty
+	}
+
+	// Check sites have type (C)C, where C is the class of the checked object
+	public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type) {
+		Class<?> c = type.returnType();
+
+		// Interfaces are not in the superclass chains that get invalidated
+		if (c.isInterface())
+			c = Object.class;
+
+		return Guards.guards.get(c).link(type);
+	}
+
+	public static Object ensureNotProxy(Object obj) {
+		if (obj instanceof RubahProxy)
+			return RubahRuntime.getConverted(obj);
+
+		return obj;
+	}
+
+	// Called before an object of class c becomes a proxy
+	public static void proxiesInstalled(Class<?> c) {
+		// Counted before reading whether the guards are armed, see Guards.arm
+		installs.incrementAndGet();
+
+		if (INVOKE_DYNAMIC)
+			Guards.invalidate(c);
+	}
+
+	// Number of proxiesInstalled calls so far, see proxiesRemoved
+	public static long getInstalls() {
+		return installs.get();
+	}
+
+	/**
+	 * Called when no proxies are left in the heap.  The caller reads
+	 * getInstalls() first and then proves that every proxy installed until
+	 * that point is gone.  Installs that happen after that point are not
+	 * covered by the proof, so the checks stay on if there was any.
+	 * @param installsBefore What getInstalls() returned before the proof
+	 * @return False if proxies were installed since, and may still exist
+	 */
+	public static boolean proxiesRemoved(long installsBefore) {
+		if (INVOKE_DYNAMIC)
+			return Guards.arm(installsBefore);
+
+		return installs.get() == installsBefore;
+	}
+
+	// Holder, so that java.lang.invoke is only touched when the option is on
+	private static class Guards {
+		private static final MethodHandle CHECK;
+		private static final List<Guard> all = new LinkedList<Guard>();
+		private static final ClassValue<Guard> guards = new ClassValue<Guard>() {
+			@Override
+			protected Guard computeValue(Class<?> type) {
+				Guard ret = new Guard();
+
+				synchronized (Guards.class) {
+					all.add(ret);
+				}
+
+				return ret;
+			}
+		};
+
+		static {
+			try {
+				CHECK = MethodHandles.lookup().findStatic(
+						ProxyChecks.class,
+						CHECK_NAME,
+						MethodType.methodType(Object.class, Object.class));
+			} catch (NoSuchMethodException | IllegalAccessException e) {
+				throw new Error(e);
+			}
+		}
+
+		private static void invalidate(Class<?> c) {
+			// Fast path, superclasses are invalidated before their subclasses
+			// A concurrent arm sees the install counted before this read and disarms again
+			if (!guards.get(c).isArmed())
+				return;
+
+			LinkedList<Guard> chain = new LinkedList<Guard>();
+			for (; c != null ; c = c.getSuperclass())
+				chain.addFirst(guards.get(c));
+
+			synchronized (Guards.class) {
+				for (Guard g : chain)
+					g.invalidate();
+			}
+		}
+
+		private static synchronized boolean arm(long installsBefore) {
+			if (installs.get() != installsBefore)
+				return false;
+
+			for (Guard g : all)
+				g.arm();
+
+			// An install that read its guard before it was armed took the fast path in invalidate
+			// It counted itself before that read, so it shows up here
+			if (installs.get() == installsBefore)
+				return true;
+
+			for (Guard g : all)
+				g.invalidate();
+
+			return false;
+		}
+	}
+
+	private static class Guard {
+		private final List<MutableCallSite> sites = new ArrayList<MutableCallSite>();
+		private volatile SwitchPoint noProxies = new SwitchPoint();
+
+		private boolean isArmed() {
+			return this.noProxies != null;
+		}
+
+		private synchronized CallSite link(MethodType type) {
+			MutableCallSite site = new MutableCallSite(type);
+			site.setTarget(this.getTarget(type));
+			this.sites.add(site);
+			return site;
+		}
+
+		private MethodHandle getTarget(MethodType type) {
+			MethodHandle check = Guards.CHECK.asType(type);
+
+			if (this.noProxies == null)
+				return check;
+
+			return this.noProxies.guardWithTest(MethodHandles.identity(type.returnType()), check);
+		}
+
+		private synchronized void invalidate() {
+			if (this.noProxies == null)
+				return;
+
+			// Compiled check sites deoptimize and check for proxies from now on
+			SwitchPoint.invalidateAll(new SwitchPoint[]{ this.noProxies });
+			this.noProxies = null;
+		}
+
+		private synchronized void arm() {
+			if (this.noProxies != null)
+				return;
+
+			this.noProxies = new SwitchPoint();
+
+			for (MutableCallSite site : this.sites)
+				site.setTarget(this.getTarget(site.type()));
+
+			MutableCallSite.syncAll(this.sites.toArray(new MutableCallSite[this.sites.size()]));
+		}
+	}
+}
@@ -33,7 +33,9 @@ import rubah.runtime.state.Options;
 import rubah.runtime.state.RubahState;
 
 public class RubahRuntime {
-	private static RubahState state = new NotUpdating();
+	// Volatile so that update points only pay for one read
+	// The lock only orders state changes with thread (de)registration
+	private static volatile RubahState state = new NotUpdating();
 	private static RubahClassloader loader;
 	private static ReadWriteLock lock = new ReentrantReadWriteLock();
 
@@ -50,8 +52,8 @@ public class RubahRuntime {
 		}
 	}
 
-	// Not synchronized but concurrent.
-	// However, missing an update point is benign:
+	// Not locked, reads the volatile state once.
+	// Missing an update point is benign:
 	// - Thread is running, it will reach the update point again in the future
 	// - Thread is blocked, it was interrupted and that creates an happens-before
 	// - Thread is running but will block immediately after:
@@ -59,12 +61,7 @@ public class RubahRuntime {
 	//  - Then, must query current state about a possible requested update
 	//  - So, the blocking call fails and the thread reaches the next update point
 	public static void update(String updatePoint) {
-		lock.readLock().lock();
-		try {
-			state.update(updatePoint);
-		} finally {
-			lock.readLock().unlock();
-		}
+		state.update(updatePoint);
 //		// This yield helps breaking tight loops calling update,
 //		// which may never see the state changing due to it being cached
 //		Thread.yield();
@@ -112,21 +109,11 @@ public class RubahRuntime {
 	}
 
 	public static boolean isUpdateRequested() {
-		lock.readLock().lock();
-		try {
-			return state.isUpdateRequested();
-		} finally {
-			lock.readLock().unlock();
-		}
+		return state.isUpdateRequested();
 	}
 
 	public static boolean isUpdating() {
-		lock.readLock().lock();
-		try {
-			return state.isUpdating();
-		} finally {
-			lock.readLock().unlock();
-		}
+		return state.isUpdating();
 	}
 
 	public static void setRubahClassloader(RubahClassloader rubahloader) {
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.runtime;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+
+public class UpdatePoints {
+	// Classes older than 1.7 keep static update calls, see InvokeDynamicUpdatePoints
+	public static final String INVOKE_DYNAMIC_PROPERTY = "rubah.invokeDynamicUpdatePoints";
+	public static final boolean INVOKE_DYNAMIC = Boolean.getBoolean(INVOKE_DYNAMIC_PROPERTY);
+	public static final String BOOTSTRAP_NAME = "bootstrap";
+	public static final String BOOTSTRAP_DESC =
+			MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class).toMethodDescriptorString();
+
+	private UpdatePoints() {
+		// Empty
+	}
+
+	public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type) {
+		return new ConstantCallSite(Sites.site.dynamicInvoker());
+	}
+
+	// Called before leaving the not-updating state
+	public static void requestUpdate() {
+		if (INVOKE_DYNAMIC)
+			Sites.invalidate();
+	}
+
+	// Called when entering the not-updating state
+	public static void updateFinished() {
+		if (INVOKE_DYNAMIC)
+			Sites.arm();
+	}
+
+	// Holder, so that java.lang.invoke is only touched when the option is on
+	private static class Sites {
+		private static final MethodType UPDATE_TYPE = MethodType.methodType(void.class, String.class);
+		private static final MethodHandle NO_UPDATE;
+		private static final MethodHandle UPDATE;
+		private static final MutableCallSite site = new MutableCallSite(UPDATE_TYPE);
+		private static SwitchPoint switchPoint;
+
+		static {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			try {
+				NO_UPDATE = lookup.findStatic(Sites.class, "noUpdate", UPDATE_TYPE);
+				UPDATE = lookup.findStatic(RubahRuntime.class, "update", UPDATE_TYPE);
+			} catch (NoSuchMethodException | IllegalAccessException e) {
+				throw new Error(e);
+			}
+			site.setTarget(UPDATE);
+			arm();
+		}
+
+		@SuppressWarnings("unused")
+		private static void noUpdate(String updatePoint) {
+			// Empty
+		}
+
+		private static synchronized void arm() {
+			if (switchPoint != null)
+				return;
+
+			switchPoint = new SwitchPoint();
+			site.setTarget(switchPoint.guardWithTest(NO_UPDATE, UPDATE));
+			MutableCallSite.syncAll(new MutableCallSite[]{ site });
+		}
+
+		private static synchronized void invalidate() {
+			if (switchPoint == null)
+				return;
+
+			// Compiled update points deoptimize and take the slow path from now on
+			SwitchPoint.invalidateAll(new SwitchPoint[]{ switchPoint });
+			switchPoint = null;
+		}
+	}
+}
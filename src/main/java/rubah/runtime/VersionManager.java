@@ -21,20 +21,25 @@
 package rubah.runtime;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
-import org.apache.commons.io.IOUtils;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
 
 import rubah.framework.Clazz;
 import rubah.framework.Namespace;
 import rubah.runtime.classloader.FallbackLoader;
+import rubah.runtime.classloader.TransformedJar;
 import rubah.runtime.classloader.TransformerFactory;
 import rubah.runtime.classloader.VersionLoader;
 import rubah.runtime.state.Options;
@@ -44,6 +49,7 @@ import rubah.update.UpdateClass;
 import rubah.update.V0V0UpdateClass;
 
 public final class VersionManager {
+	public static final String PRETRANSFORM_PROPERTY = "rubah.pretransform";
 	private static Namespace defaultNamespace = new Namespace();
 	private static VersionManager instance;
 
@@ -61,11 +67,15 @@ public final class VersionManager {
 	public static int runningVersionNumber;
 	private Version runningVersion;
 	private LinkedList<Version> versions = new LinkedList<Version>();
-	private Map<Version, byte[]> descriptors = new HashMap<Version, byte[]>();
+	private Map<Version, ByteBuffer> descriptors = new HashMap<Version, ByteBuffer>();
 	private Map<Version, File> jarFiles = new HashMap<Version, File>();
+	// Opened once and kept open, versions are never uninstalled
+	private Map<File, JarFile> openJars = new ConcurrentHashMap<File, JarFile>();
+	private ConcurrentHashMap<Version, TransformedJar> transformedJars = new ConcurrentHashMap<Version, TransformedJar>();
 	private Map<Version, UpdateClass> updateClasses = new HashMap<Version, UpdateClass>();
 
 	private Set<String> currentVersionClassNames = new HashSet<>();
+	private Map<String, byte[]> pretransformed = new ConcurrentHashMap<>();
 	private Set<String> outdatedClassNames = new HashSet<>();
 
 	private VersionManager() { /* Empty */ }
@@ -84,6 +94,7 @@ public final class VersionManager {
 
 		this.outdatedClassNames.addAll(this.currentVersionClassNames);
 		this.currentVersionClassNames = new HashSet<>();
+		this.pretransformed.clear();
 
 		for (Clazz c1 : v1.getNamespace().getDefinedClasses()) {
 			String updatableName = v1.getUpdatableName(c1.getFqn());
@@ -92,11 +103,11 @@ public final class VersionManager {
 	}
 
 	public void installVersion(Options options) throws IOException {
-		byte[] descriptorBytes = IOUtils.toByteArray(new FileInputStream(options.getUpdateDescriptor()));
-		Version v1 = this.createNextVersion(descriptorBytes);
+		ByteBuffer descriptor = UpdatableJarAnalyzer.mapFile(options.getUpdateDescriptor());
+		Version v1 = this.createNextVersion(descriptor);
 
 		this.versions.addFirst(v1);
-		this.descriptors.put(v1, descriptorBytes);
+		this.descriptors.put(v1, descriptor);
 		this.jarFiles.put(v1, options.getJar());
 		this.updateClasses.put(v1, options.getUpdateClass());
 
@@ -105,6 +116,7 @@ public final class VersionManager {
 
 		this.outdatedClassNames.addAll(this.currentVersionClassNames);
 		this.currentVersionClassNames = new HashSet<>();
+		this.pretransformed.clear();
 
 		for (Clazz c1 : v1.getNamespace().getDefinedClasses()) {
 			String updatableName = v1.getUpdatableName(c1.getFqn());
@@ -112,9 +124,9 @@ public final class VersionManager {
 		}
 	}
 
-	private Version createNextVersion(byte[] descriptorBytes) throws IOException {
+	private Version createNextVersion(ByteBuffer descriptorBuffer) throws IOException {
 		VersionDescriptor descriptor =
-				UpdatableJarAnalyzer.readFile(descriptorBytes, defaultNamespace);
+				UpdatableJarAnalyzer.readFile(descriptorBuffer, defaultNamespace);
 
 		Version v1;
 		int number = 0;
@@ -138,7 +150,7 @@ public final class VersionManager {
 		return this.versions;
 	}
 
-	public byte[] getDescriptorBytes(Version v) {
+	public ByteBuffer getDescriptor(Version v) {
 		return this.descriptors.get(v);
 	}
 
@@ -146,10 +158,85 @@ public final class VersionManager {
 		return this.jarFiles.get(v);
 	}
 
+	public JarFile getJar(Version v) throws IOException {
+		File file = this.jarFiles.get(v);
+
+		if (file == null)
+			return null;
+
+		JarFile ret = this.openJars.get(file);
+
+		if (ret == null) {
+			synchronized (this.openJars) {
+				ret = this.openJars.get(file);
+				if (ret == null) {
+					ret = new JarFile(file);
+					this.openJars.put(file, ret);
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	public TransformedJar getTransformedJar(Version v) throws IOException {
+		TransformedJar ret = this.transformedJars.get(v);
+
+		if (ret == null) {
+			ret = TransformedJar.open(this.getJar(v), v);
+			TransformedJar prev = this.transformedJars.putIfAbsent(v, ret);
+
+			if (prev != null)
+				return prev;
+
+			if (ret != TransformedJar.NONE)
+				System.out.println("Using " + ret.size() + " classes transformed ahead of time for version " + v.getNumber());
+		}
+
+		return ret;
+	}
+
 	public byte[] getClassBytes(String className) throws IOException {
+		byte[] ret = this.pretransformed.remove(className);
+
+		if (ret != null)
+			return ret;
+
 		return this.getClassBytes(className, this.runningVersion);
 	}
 
+	// Transforms all classes of the running version in parallel, ahead of loading them
+	public void pretransformClasses() {
+		if (!Boolean.getBoolean(PRETRANSFORM_PROPERTY))
+			return;
+
+		long time = System.currentTimeMillis();
+		LinkedList<Callable<Void>> tasks = new LinkedList<>();
+
+		for (final String className : this.currentVersionClassNames) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					pretransformed.put(className, getClassBytes(className, runningVersion));
+					return null;
+				}
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			for (Future<Void> f : pool.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new Error(e);
+		} finally {
+			pool.shutdown();
+		}
+
+		time = System.currentTimeMillis() - time;
+		System.out.println("Pre-transformed " + this.pretransformed.size() + " classes in " + time + "ms");
+	}
+
 	public byte[] getClassBytes(String className, TransformerFactory factory) throws IOException {
 		return this.getClassBytes(className, this.runningVersion, factory);
 	}
@@ -165,7 +252,7 @@ public final class VersionManager {
 			// Up-to-date class
 			VersionLoader loader = new VersionLoader(
 					version,
-					this.jarFiles.get(version),
+					this.getJar(version),
 					factory);
 			ret = loader.getClass(className);
 		} else if (this.outdatedClassNames.contains(className)) {
@@ -179,7 +266,7 @@ public final class VersionManager {
 				if (v.getUpdatableName(originalName).equals(className)) {
 					VersionLoader loader = new VersionLoader(
 							v,
-							this.jarFiles.get(v),
+							this.getJar(v),
 							factory);
 					ret = loader.getClass(className);
 					return ret;
@@ -188,7 +275,11 @@ public final class VersionManager {
 			throw new Error("Unknown outdated class (should never happen): " + className);
 		} else {
 			// Non-updatable class
-			ret = new FallbackLoader(this.versions.getFirst(), factory).getClass(className);
+			// Analyzing it updates the namespace in place, do one at a time
+			// Transformations running in parallel read the members concurrently, see Clazz
+			synchronized (FallbackLoader.class) {
+				ret = new FallbackLoader(this.versions.getFirst(), factory).getClass(className);
+			}
 		}
 
 		return ret;
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.runtime.classloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.javatuples.Pair;
+
+// Writes the bytes of defined classes to a jar, off the class loading path
+public class ClassDump {
+	public static final String DUMP_FILE_PROPERTY = "rubah.classDump";
+	// Comma-separated package prefixes, all classes when absent
+	public static final String PACKAGES_PROPERTY = "rubah.classDump.packages";
+	private static final int QUEUE_SIZE = 4096;
+	private static final long CLOSE_POLL_MS = 100;
+	private static final Pair<String, byte[]> END = new Pair<String, byte[]>(null, null);
+	private static final ClassDump instance;
+
+	static {
+		String fileName = System.getProperty(DUMP_FILE_PROPERTY);
+
+		if (fileName != null) {
+			List<String> packages = new LinkedList<String>();
+			String packagesList = System.getProperty(PACKAGES_PROPERTY);
+
+			if (packagesList != null)
+				for (String p : packagesList.split(","))
+					if (!p.trim().isEmpty())
+						packages.add(p.trim());
+
+			try {
+				instance = new ClassDump(new File(fileName), packages);
+			} catch (IOException e) {
+				throw new Error(e);
+			}
+		} else {
+			instance = null;
+		}
+	}
+
+	// Null when the dump is disabled
+	public static ClassDump getInstance() {
+		return instance;
+	}
+
+	private final List<String> packages;
+	private final BlockingQueue<Pair<String, byte[]>> queue = new ArrayBlockingQueue<Pair<String, byte[]>>(QUEUE_SIZE);
+	private final AtomicInteger dropped = new AtomicInteger();
+	private final Writer writer;
+	// Set when the writer stops on an error, nothing is enqueued afterwards
+	private volatile Exception failure;
+
+	private ClassDump(File file, List<String> packages) throws IOException {
+		this.packages = packages;
+		this.writer = new Writer(new JarOutputStream(new FileOutputStream(file)));
+		this.writer.start();
+
+		// The jar is only readable after its central directory is written
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	public void add(String className, byte[] classBytes) {
+		if (!this.packages.isEmpty()) {
+			boolean found = false;
+			for (String p : this.packages) {
+				if (className.startsWith(p)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found)
+				return;
+		}
+
+		if (this.failure != null)
+			return;
+
+		// Never block class loading, drop classes when the writer falls behind
+		if (!this.queue.offer(new Pair<String, byte[]>(className, classBytes)))
+			this.dropped.incrementAndGet();
+	}
+
+	private void close() {
+		try {
+			// The writer may die while the queue is full, do not wait for it forever
+			while (!this.queue.offer(END, CLOSE_POLL_MS, TimeUnit.MILLISECONDS))
+				if (!this.writer.isAlive())
+					break;
+			this.writer.join();
+		} catch (InterruptedException e) {
+			return;
+		}
+
+		if (this.failure != null)
+			System.out.println("Class dump failed: " + this.failure);
+
+		if (this.dropped.get() > 0)
+			System.out.println("Class dump dropped " + this.dropped.get() + " classes");
+	}
+
+	private class Writer extends Thread {
+		private final JarOutputStream out;
+		private final Set<String> written = new HashSet<String>();
+
+		public Writer(JarOutputStream out) {
+			super("Rubah class dump");
+			this.setDaemon(true);
+			this.out = out;
+		}
+
+		@Override
+		public void run() {
+			List<Pair<String, byte[]>> batch = new ArrayList<Pair<String, byte[]>>();
+
+			try {
+				while (true) {
+					batch.add(queue.take());
+					queue.drainTo(batch);
+
+					for (Pair<String, byte[]> entry : batch) {
+						if (entry == END) {
+							this.out.close();
+							return;
+						}
+						this.write(entry.getValue0(), entry.getValue1());
+					}
+
+					batch.clear();
+					this.out.flush();
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException | RuntimeException e) {
+				failure = e;
+				System.out.println(e);
+				e.printStackTrace();
+				queue.clear();
+				try {
+					this.out.close();
+				} catch (IOException e2) {
+					// Already failed
+				}
+			}
+		}
+
+		private void write(String className, byte[] classBytes) throws IOException {
+			String name = className.replace('.', '/') + ".class";
+
+			// Jar entries must be unique
+			if (!this.written.add(name))
+				return;
+
+			this.out.putNextEntry(new JarEntry(name));
+			this.out.write(classBytes);
+			this.out.closeEntry();
+		}
+	}
+}
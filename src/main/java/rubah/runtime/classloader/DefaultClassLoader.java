@@ -32,10 +32,12 @@ import org.objectweb.asm.Opcodes;
 
 import rubah.bytecode.transformers.AddForwardField;
 import rubah.bytecode.transformers.DecreaseClassMethodsProtection;
+import rubah.bytecode.transformers.InvokeDynamicUpdatePoints;
 import rubah.bytecode.transformers.RedirectFieldManipulation;
 import rubah.bytecode.transformers.ReplaceOriginalNamesByUnique;
 import rubah.bytecode.transformers.ReplaceUniqueByOriginalNames;
 import rubah.framework.Namespace;
+import rubah.runtime.UpdatePoints;
 
 public abstract class DefaultClassLoader implements Opcodes {
 	protected Namespace namespace;
@@ -78,7 +80,19 @@ public abstract class DefaultClassLoader implements Opcodes {
 			return null;
 		}
 
+		byte[] ret = this.getTransformedClassBytes(className);
+		if (ret != null)
+			return ret;
+
 		byte[] classBytes = this.getOriginalClassBytes(className);
+
+		TransformedClassCache.Key cacheKey = this.getCacheKey(className, classBytes);
+		if (cacheKey != null) {
+			byte[] cached = TransformedClassCache.getInstance().get(cacheKey);
+			if (cached != null)
+				return cached;
+		}
+
 		ClassReader reader = new ClassReader(classBytes);
 		ClassWriter writer = this.getClassWriter(ClassWriter.COMPUTE_MAXS);
 		ClassVisitor visitor = writer;
@@ -98,7 +112,22 @@ public abstract class DefaultClassLoader implements Opcodes {
 
 		reader.accept(visitor, ClassReader.SKIP_FRAMES);
 
-		return writer.toByteArray();
+		ret = writer.toByteArray();
+
+		if (cacheKey != null)
+			TransformedClassCache.getInstance().put(cacheKey, ret);
+
+		return ret;
+	}
+
+	// Null when the class was not transformed ahead of time
+	protected byte[] getTransformedClassBytes(String className) throws IOException {
+		return null;
+	}
+
+	// Null when the transformed bytes cannot be cached
+	protected TransformedClassCache.Key getCacheKey(String className, byte[] classBytes) {
+		return null;
 	}
 
 	protected ClassVisitor addPreTransformer(ClassVisitor visitor) {
@@ -122,6 +151,9 @@ public abstract class DefaultClassLoader implements Opcodes {
 		visitor = new RedirectFieldManipulation(objectsMap, this.namespace, visitor);
 		visitor = new DecreaseClassMethodsProtection(visitor);
 
+		if (UpdatePoints.INVOKE_DYNAMIC)
+			visitor = new InvokeDynamicUpdatePoints(visitor);
+
 		return visitor;
 	}
 
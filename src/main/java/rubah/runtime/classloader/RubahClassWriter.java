@@ -44,7 +44,7 @@ public class RubahClassWriter extends ClassWriter {
 		typeName =
 				this.version.getOriginalName(type.getClassName());
 		if (typeName != null) {
-			type = Type.getObjectType(typeName);
+			type = Type.getObjectType(typeName.replace('.', '/'));
 		}
 		return type;
 	}
@@ -21,17 +21,13 @@
 package rubah.runtime.classloader;
 
 import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
@@ -80,7 +76,7 @@ public class RubahClassloader extends ClassLoader implements Opcodes {
 		return unsafe.objectFieldOffset(hashCodeField);
 	}
 
-	private Map<String, Boolean> resolved = new HashMap<>();
+	private ConcurrentHashMap<String, Boolean> resolved = new ConcurrentHashMap<>();
 
 	private static LinkedList<Class<?>> loadedClasses = new LinkedList<Class<?>>();
 	public static LinkedList<Class<?>> getLoadedClasses() {
@@ -112,12 +108,23 @@ public class RubahClassloader extends ClassLoader implements Opcodes {
 		unsafe.putInt(c, hashCodeFieldOffset, hashCode);
 	}
 
+	static {
+		registerAsParallelCapable();
+	}
+
 	public RubahClassloader(ClassLoader parent) {
 		super(parent);
 	}
 
 	@Override
-	protected synchronized Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+	protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+		// Per-class lock, different classes are transformed and defined in parallel
+		synchronized (this.getClassLoadingLock(className)) {
+			return this.doLoadClass(className, resolve);
+		}
+	}
+
+	private Class<?> doLoadClass(String className, boolean resolve) throws ClassNotFoundException {
 		byte[] classBytes = null;
 		VersionManager updateManager = VersionManager.getInstance();
 
@@ -158,7 +165,9 @@ public class RubahClassloader extends ClassLoader implements Opcodes {
 				classBytes = Rubah.getClassBytes(className);
 				writeClassFile(className, classBytes);
 				ret = this.defineClass(className, classBytes, 0, classBytes.length);
-				redefinableClasses.add(ret);
+				synchronized (RubahClassloader.class) {
+					redefinableClasses.add(ret);
+				}
 			} catch (IOException e) {
 				throw new ClassNotFoundException();
 			}
@@ -177,8 +186,10 @@ public class RubahClassloader extends ClassLoader implements Opcodes {
 		}
 
 		if (AddTraverseMethod.isAllowed(className)) {
-			loadedClasses.add(ret);
-			loadedClassNames.add(ret.getName());
+			synchronized (RubahClassloader.class) {
+				loadedClasses.add(ret);
+				loadedClassNames.add(ret.getName());
+			}
 		}
 
 		if (resolve)
@@ -187,9 +198,7 @@ public class RubahClassloader extends ClassLoader implements Opcodes {
 		if (ret.hashCode() == 0)
 			setHashCode(ret);
 
-		Boolean isResolved = this.resolved.get(ret.getName());
-		if (isResolved == null)
-			this.resolved.put(ret.getName(), false);
+		this.resolved.putIfAbsent(ret.getName(), false);
 
 		return ret;
 	}
@@ -204,24 +213,10 @@ public class RubahClassloader extends ClassLoader implements Opcodes {
 	}
 
 	private static void writeClassFile(String className, byte[] classBytes) {
-		FileOutputStream fos = null;
-		try {
-			File f = new File("/tmp/rubah/"+className.replace('.', '/'));
-			f.mkdirs();
-			f = new File("/tmp/rubah/"+className.replace('.', '/')+".class");
-			fos = new FileOutputStream(f);
-			IOUtils.write(classBytes, fos);
-		} catch (IOException e) {
-			throw new Error(e);
-		} finally {
-			if (fos != null)
-				try {
-					fos.close();
-				} catch (IOException e) {
-					// Don't care
-				}
-		}
+		ClassDump dump = ClassDump.getInstance();
 
+		if (dump != null)
+			dump.add(className, classBytes);
 	}
 
 
@@ -232,7 +227,7 @@ public class RubahClassloader extends ClassLoader implements Opcodes {
 		for (Version version : manager.getVersions()) {
 			byte[] ret;
 			try {
-				ret = new VersionLoader(version, manager.getJarFile(version), new TransformerFactory()).getResource(name);
+				ret = new VersionLoader(version, manager.getJar(version), new TransformerFactory()).getResource(name);
 			} catch (IOException e) {
 				continue;
 			}
@@ -247,32 +242,17 @@ public class RubahClassloader extends ClassLoader implements Opcodes {
 
 	@Override
 	public InputStream getResourceAsStream(String name) {
-		JarFile jarFile = null;
 		try {
 			VersionManager u = VersionManager.getInstance();
-			Version v = u.getRunningVersion();
-			File f = VersionManager.getInstance().getJarFile(v);
-			jarFile = new JarFile(f);
-			JarEntry entry = jarFile.getJarEntry(name);
+			JarFile jarFile = u.getJar(u.getRunningVersion());
+			JarEntry entry = (jarFile == null ? null : jarFile.getJarEntry(name));
 
 			if (entry != null) {
-				try {
-					byte[] ret = IOUtils.toByteArray(jarFile.getInputStream(entry));
-					return new ByteArrayInputStream(ret);
-				} catch (IOException e) {
-					throw new Error(e);
-				}
+				byte[] ret = IOUtils.toByteArray(jarFile.getInputStream(entry));
+				return new ByteArrayInputStream(ret);
 			}
-
 		} catch (IOException e) {
 			throw new Error(e);
-		} finally {
-			if (jarFile != null)
-				try {
-					jarFile.close();
-				} catch (IOException e) {
-					// Don't care
-				}
 		}
 
 		return super.getResourceAsStream(name);
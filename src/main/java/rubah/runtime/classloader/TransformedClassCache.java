@@ -0,0 +1,202 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.runtime.classloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+public class TransformedClassCache {
+	public static final String CACHE_DIR_PROPERTY = "rubah.classCache";
+	// Bump when transformers change the bytecode they generate
+	private static final int FORMAT_VERSION = 1;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final TransformedClassCache instance;
+
+	static {
+		String dirName = System.getProperty(CACHE_DIR_PROPERTY);
+
+		if (dirName != null) {
+			File dir = new File(dirName);
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new Error("Cannot create class cache directory " + dir);
+			instance = new TransformedClassCache(dir);
+		} else {
+			instance = null;
+		}
+	}
+
+	// Null when the cache is disabled
+	public static TransformedClassCache getInstance() {
+		return instance;
+	}
+
+	private final File dir;
+
+	private TransformedClassCache(File dir) {
+		this.dir = dir;
+	}
+
+	public byte[] get(Key key) throws IOException {
+		File file = this.getFile(key);
+
+		if (!file.isFile())
+			return null;
+
+		return Files.readAllBytes(file.toPath());
+	}
+
+	public void put(Key key, byte[] classBytes) throws IOException {
+		File file = this.getFile(key);
+		File tmp = File.createTempFile(file.getName(), ".tmp", this.dir);
+
+		try (FileOutputStream out = new FileOutputStream(tmp)) {
+			out.write(classBytes);
+		}
+
+		// Atomic, concurrent JVMs sharing the cache never see partial entries
+		if (!tmp.renameTo(file))
+			tmp.delete();
+	}
+
+	private File getFile(Key key) {
+		return new File(this.dir, key.toString() + ".class");
+	}
+
+	public static Key newKey() {
+		return new Key().add(FORMAT_VERSION).add(System.getProperty("java.version")).add(BuildId.value);
+	}
+
+	// Holder, the Rubah classes are only hashed when a key is needed
+	private static class BuildId {
+		private static final byte[] value = computeBuildId();
+
+		// Hash of the Rubah classes, keys computed by a different build never match
+		private static byte[] computeBuildId() {
+			Key key = new Key();
+			CodeSource source = TransformedClassCache.class.getProtectionDomain().getCodeSource();
+
+			try {
+				File location = (source == null || source.getLocation() == null ? null : new File(source.getLocation().toURI()));
+
+				if (location != null && location.isFile()) {
+					key.add(Files.readAllBytes(location.toPath()));
+					return key.getBytes();
+				}
+
+				if (location != null && location.isDirectory()) {
+					addClassFiles(key, location, "");
+					return key.getBytes();
+				}
+			} catch (IOException | URISyntaxException | IllegalArgumentException e) {
+				System.out.println(e);
+			}
+
+			String version = TransformedClassCache.class.getPackage().getImplementationVersion();
+			System.out.println("Cannot hash the Rubah classes, using build " + version + " in transformed class keys");
+			return key.add(String.valueOf(version)).getBytes();
+		}
+	}
+
+	private static void addClassFiles(Key key, File dir, String prefix) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null)
+			throw new IOException("Cannot list " + dir);
+
+		// Same order on every run
+		Arrays.sort(files);
+
+		for (File f : files) {
+			String name = prefix + f.getName();
+			if (f.isDirectory())
+				addClassFiles(key, f, name + "/");
+			else if (name.endsWith(".class"))
+				key.add(name).add(Files.readAllBytes(f.toPath()));
+		}
+	}
+
+	public static String toHex(byte[] bytes) {
+		char[] ret = new char[bytes.length * 2];
+
+		for (int i = 0 ; i < bytes.length ; i++) {
+			ret[2*i] = HEX[(bytes[i] >> 4) & 0xf];
+			ret[2*i + 1] = HEX[bytes[i] & 0xf];
+		}
+
+		return new String(ret);
+	}
+
+	public static class Key {
+		private final MessageDigest digest;
+		private byte[] hash;
+
+		private Key() {
+			try {
+				this.digest = MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new Error(e);
+			}
+		}
+
+		public Key add(byte[] bytes) {
+			this.add(bytes.length);
+			this.digest.update(bytes);
+			return this;
+		}
+
+		public Key add(ByteBuffer bytes) {
+			this.add(bytes.limit());
+			this.digest.update(bytes.duplicate());
+			return this;
+		}
+
+		public Key add(String s) {
+			return this.add(s.getBytes(StandardCharsets.UTF_8));
+		}
+
+		public Key add(long l) {
+			for (int i = 0 ; i < 8 ; i++, l >>>= 8)
+				this.digest.update((byte) l);
+			return this;
+		}
+
+		// Nothing can be added afterwards
+		public byte[] getBytes() {
+			if (this.hash == null)
+				this.hash = this.digest.digest();
+
+			return this.hash;
+		}
+
+		@Override
+		public String toString() {
+			return toHex(this.getBytes());
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.runtime.classloader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.IOUtils;
+
+import rubah.runtime.Version;
+
+// Version jar with classes transformed ahead of time by the aot tool
+public class TransformedJar {
+	public static final String PREFIX = "META-INF/rubah/";
+	public static final String INDEX_ENTRY = PREFIX + "index";
+	private static final String CLASSES_PREFIX = PREFIX + "classes/";
+	public static final TransformedJar NONE = new TransformedJar(null, Collections.<String>emptySet());
+
+	private final JarFile jar;
+	private final Set<String> classNames;
+
+	private TransformedJar(JarFile jar, Set<String> classNames) {
+		this.jar = jar;
+		this.classNames = classNames;
+	}
+
+	public static TransformedJar open(JarFile jar, Version version) throws IOException {
+		// Later versions depend on the update class and on which classes are already resolved
+		if (jar == null || version.getPrevious() != null)
+			return NONE;
+
+		ZipEntry ze = jar.getEntry(INDEX_ENTRY);
+		if (ze == null)
+			return NONE;
+
+		List<String> lines = IOUtils.readLines(jar.getInputStream(ze), "UTF-8");
+		byte[] key = VersionLoader.getVersionKey(version);
+
+		if (lines.isEmpty() || key == null || !lines.get(0).equals(TransformedClassCache.toHex(key))) {
+			System.out.println("Ignoring stale transformed classes in " + jar.getName());
+			return NONE;
+		}
+
+		return new TransformedJar(jar, new HashSet<>(lines.subList(1, lines.size())));
+	}
+
+	// Null when the class was not transformed ahead of time
+	public byte[] getClassBytes(String className) throws IOException {
+		if (!this.classNames.contains(className))
+			return null;
+
+		return IOUtils.toByteArray(this.jar.getInputStream(this.jar.getEntry(getEntryName(className))));
+	}
+
+	public int size() {
+		return this.classNames.size();
+	}
+
+	public static String getEntryName(String className) {
+		return CLASSES_PREFIX + className.replace('.', '/');
+	}
+
+	public static byte[] getIndex(Version version, Collection<String> classNames) {
+		StringBuilder ret = new StringBuilder(TransformedClassCache.toHex(VersionLoader.getVersionKey(version)));
+
+		for (String className : classNames)
+			ret.append('\n').append(className);
+
+		return ret.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
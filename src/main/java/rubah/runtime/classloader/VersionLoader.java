@@ -20,10 +20,11 @@
  *******************************************************************************/
 package rubah.runtime.classloader;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
 
@@ -31,25 +32,25 @@ import org.apache.commons.io.IOUtils;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 
+import rubah.Rubah;
 import rubah.bytecode.transformers.DummifyStaticInitTransformer;
 import rubah.bytecode.transformers.ReflectionRewritter;
+import rubah.runtime.ProxyChecks;
+import rubah.runtime.UpdatePoints;
 import rubah.runtime.Version;
+import rubah.runtime.VersionManager;
 
 public class VersionLoader extends DefaultClassLoader {
+	private static final ConcurrentHashMap<Version, byte[]> versionKeys = new ConcurrentHashMap<Version, byte[]>();
+
 	protected Version version;
 	private JarFile versionJar;
 
-	public VersionLoader(Version version, File versionJar, TransformerFactory factory) {
+	public VersionLoader(Version version, JarFile versionJar, TransformerFactory factory) {
 		super(version.getNamespace(), factory);
 		this.version = version;
 		this.factory = factory;
-		try {
-			if (versionJar != null) {
-				this.versionJar = new JarFile(versionJar);
-			}
-		} catch (IOException e) {
-			throw new Error(e);
-		}
+		this.versionJar = versionJar;
 	}
 
 	@Override
@@ -77,6 +78,63 @@ public class VersionLoader extends DefaultClassLoader {
 		return IOUtils.toByteArray(jarFile.getInputStream(ze));
 	}
 
+	// Everything other than the class itself that the transformed bytes depend on
+	// Computed once per version, the descriptors of a version never change
+	public static byte[] getVersionKey(Version version) {
+		byte[] ret = versionKeys.get(version);
+		if (ret != null)
+			return ret;
+
+		TransformedClassCache.Key key = TransformedClassCache.newKey()
+				.add(VersionLoader.class.getName())
+				.add(UpdatePoints.INVOKE_DYNAMIC ? 1 : 0)
+				.add(ProxyChecks.INVOKE_DYNAMIC ? 1 : 0)
+				.add(version.getNumber());
+
+		// Renaming depends on the whole version history
+		for (Version v = version ; v != null ; v = v.getPrevious()) {
+			ByteBuffer descriptor = VersionManager.getInstance().getDescriptor(v);
+			if (descriptor == null)
+				return null;
+			key.add(descriptor);
+		}
+
+		ret = key.getBytes();
+		versionKeys.put(version, ret);
+
+		return ret;
+	}
+
+	@Override
+	protected byte[] getTransformedClassBytes(String className) throws IOException {
+		if (this.versionJar == null || this.factory.getClass() != TransformerFactory.class)
+			return null;
+
+		return VersionManager.getInstance().getTransformedJar(this.version).getClassBytes(className);
+	}
+
+	@Override
+	protected TransformedClassCache.Key getCacheKey(String className, byte[] classBytes) {
+		if (this.versionJar == null || TransformedClassCache.getInstance() == null)
+			return null;
+
+		byte[] versionKey = getVersionKey(this.version);
+		if (versionKey == null)
+			return null;
+
+		TransformedClassCache.Key key = TransformedClassCache.newKey()
+				.add(versionKey)
+				.add(this.getClass().getName()).add(this.factory.getClass().getName());
+
+		// DummifyStaticInitTransformer depends on the previous version of the class being resolved
+		if (this.version.getPrevious() != null) {
+			String prevName = this.version.getPrevious().getUpdatableName(className);
+			key.add(prevName != null && Rubah.getLoader().isResolved(prevName) ? 1 : 0);
+		}
+
+		return key.add(className).add(classBytes);
+	}
+
 	@Override
 	protected ClassVisitor addTransformers(
 			ClassVisitor visitor, HashMap<String, Object> objectsMap) {
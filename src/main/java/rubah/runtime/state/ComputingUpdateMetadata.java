@@ -23,10 +23,16 @@ package rubah.runtime.state;
 import java.io.File;
 import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.objectweb.asm.Opcodes;
 
 import rubah.Rubah;
+import rubah.bytecode.transformers.ProxyGenerator;
 import rubah.framework.Clazz;
 import rubah.runtime.Version;
 import rubah.runtime.VersionManager;
@@ -107,6 +113,8 @@ public class ComputingUpdateMetadata extends RubahState implements Opcodes {
 //
 //		state.setRedefinitions(redefinitions);
 
+		this.prefetchClasses(v1);
+
 		for (Class<?> c0 : loadedClasses) {
 			String originalName = v1.getOriginalName(c0.getName());
 
@@ -128,6 +136,66 @@ public class ComputingUpdateMetadata extends RubahState implements Opcodes {
 		System.out.println("Time spent computing update metadata " + time + "ms");
 	}
 
+	// Load, transform, define and link the new version while the program still runs
+	private void prefetchClasses(Version v1) {
+		long time = System.currentTimeMillis();
+		boolean lazy = this.state.getOptions().isLazy() || this.state.getOptions().isFullyLazy();
+		final RubahClassloader loader = Rubah.getLoader();
+		final AtomicInteger failed = new AtomicInteger();
+		LinkedList<Callable<Void>> tasks = new LinkedList<>();
+
+		for (Clazz c1 : v1.getNamespace().getDefinedClasses()) {
+			final String newName = v1.getUpdatableName(c1.getFqn());
+			String prevName = (v1.getPrevious() == null ? null : v1.getPrevious().getUpdatableName(c1.getFqn()));
+
+			if (newName == null || newName.equals(prevName))
+				continue;
+
+			// The static initializer of the new class depends on the previous one being resolved
+			// Only prefetch when that can no longer change before the program stops
+			if (prevName != null && !loader.isResolved(prevName))
+				continue;
+
+			Clazz c0 = v1.getUpdate().getV0(c1);
+			final boolean proxy = !c1.isInterface() && c0 != null && (lazy || v1.getUpdate().isUpdated(c0));
+
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					try {
+						prefetchClass(newName, loader);
+						if (proxy)
+							prefetchClass(ProxyGenerator.generateProxyName(newName), loader);
+					} catch (Throwable e) {
+						// Speculative, loaded again when needed
+						failed.incrementAndGet();
+					}
+					return null;
+				}
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			for (Future<Void> f : pool.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new Error(e);
+		} finally {
+			pool.shutdown();
+		}
+
+		time = System.currentTimeMillis() - time;
+		System.out.println("Prefetched " + (tasks.size() - failed.get()) + " classes in " + time + "ms, " + failed.get() + " failed");
+	}
+
+	private static void prefetchClass(String className, ClassLoader loader) throws ClassNotFoundException {
+		Class<?> c = Class.forName(className, false, loader);
+		// Links the class without initializing it
+		c.getDeclaredMethods();
+		UnsafeUtils.getInstance().setOffsets(c);
+	}
+
 	@Override
 	public void update(String updatePoint) {
 		/* Empty */
@@ -57,6 +57,7 @@ public class InstallingFirstVersion extends InstallingNewVersion {
 	@Override
 	public RubahState start() {
 		VersionManager.getInstance().setRunningVersion();
+		VersionManager.getInstance().pretransformClasses();
 		// Use custom classloader to load class
 		new RubahThread() {
 
@@ -22,6 +22,7 @@ package rubah.runtime.state;
 
 import java.io.IOException;
 
+import rubah.runtime.UpdatePoints;
 import rubah.runtime.VersionManager;
 import rubah.runtime.classloader.TransformerFactory;
 
@@ -43,6 +44,7 @@ public class LazyNotUpdating extends NotUpdating {
 
 	@Override
 	public RubahState start() {
+		UpdatePoints.updateFinished();
 		return null;
 	}
 
@@ -25,29 +25,25 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 
 import rubah.RubahThread;
-import rubah.runtime.Version;
-import rubah.runtime.VersionManager;
 import rubah.runtime.classloader.RubahClassloader;
 import rubah.runtime.state.UpdateState.StoppedThread;
-import rubah.runtime.state.migrator.MigratorSubFactory;
-import rubah.runtime.state.migrator.StaticFieldsMigratorFactory;
-import rubah.runtime.state.migrator.MigratorSubFactory.Migrator;
 import rubah.runtime.state.strategy.MigrationStrategy;
 
 public class MigratingProgramState extends RubahState {
 	private final static int SAMPLE_TIME_MS = 1000;
 	private final static String PRINT_CONVERTED_FILE = "printConversionsToFile";
 	private final static File conversionsFile;
-	private Set<Class<?>> migratedClasses = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+	private final static Object STATIC_FIELDS_DONE = new Object();
+	// Absent while pending, the converting thread while in progress, STATIC_FIELDS_DONE when done
+	private final ConcurrentHashMap<Class<?>, Object> staticFields = new ConcurrentHashMap<>();
+	// Guarded by staticFields
+	private final Map<Thread, Class<?>> waitingForStaticFields = new HashMap<>();
 
 	static {
 		String fileName = System.getProperty(PRINT_CONVERTED_FILE);
@@ -127,7 +123,7 @@ public class MigratingProgramState extends RubahState {
 
 		// Start traversing the heap
 		try {
-			this.migrateStaticFields(loadedClasses);
+			this.strategy.migrateStaticFields(loadedClasses);
 
 			// Threads
 			for (StoppedThread stoppedThread : this.state.getStopped()) {
@@ -154,24 +150,64 @@ public class MigratingProgramState extends RubahState {
 			this.stopPrintingThread();
 	}
 
-	private void migrateStaticFields(Collection<Class<?>> classes) {
-		Version v1 = VersionManager.getInstance().getLatestVersion();
-		MigratorSubFactory staticMigratorFactory = new StaticFieldsMigratorFactory(this.strategy, v1);
-
-		for (Class<?> c : classes) {
+	/**
+	 * Claims the static fields of c for conversion by the current thread.
+	 * Waits while another thread converts them, unless that thread already
+	 * waits on this one.  Strategies call this right before converting c and
+	 * staticFieldsMigrated right after.
+	 * @return False if the static fields must not be converted by the caller
+	 */
+	public boolean claimStaticFields(Class<?> c) {
+		if (this.staticFields.get(c) == STATIC_FIELDS_DONE)
+			return false;
+
+		Thread current = Thread.currentThread();
+
+		synchronized (this.staticFields) {
+			while (true) {
+				Object owner = this.staticFields.putIfAbsent(c, current);
+
+				if (owner == null)
+					return true;
+
+				// Converting c needs c itself, or a cycle through other threads, go on as a single thread would
+				if (owner == STATIC_FIELDS_DONE || this.waitsOn((Thread) owner, current))
+					return false;
+
+				this.waitingForStaticFields.put(current, c);
+				try {
+					this.staticFields.wait();
+				} catch (InterruptedException e) {
+					continue;
+				} finally {
+					this.waitingForStaticFields.remove(current);
+				}
+			}
+		}
+	}
 
-			if (this.migratedClasses.contains(c))
-				continue;
+	public void staticFieldsMigrated(Class<?> c) {
+		synchronized (this.staticFields) {
+			this.staticFields.put(c, STATIC_FIELDS_DONE);
+			this.staticFields.notifyAll();
+		}
+	}
 
-			this.migratedClasses.add(c);
+	// Whether t is target or waits on it, possibly through other threads
+	private boolean waitsOn(Thread t, Thread target) {
+		while (t != target) {
+			Class<?> c = this.waitingForStaticFields.get(t);
+			if (c == null)
+				return false;
 
-			if (!staticMigratorFactory.canMigrate(c))
-				continue;
+			Object owner = this.staticFields.get(c);
+			if (!(owner instanceof Thread))
+				return false;
 
-			Migrator migrator = staticMigratorFactory.buildMigrator();
-			Object newC = migrator.migrate(c);
-			migrator.followReferences(newC);
+			t = (Thread) owner;
 		}
+
+		return true;
 	}
 
 	@Override
@@ -208,7 +244,11 @@ public class MigratingProgramState extends RubahState {
 
 	@Override
 	public void ensureStaticFieldsMigrated(Class<?> c) {
-		this.migrateStaticFields(Arrays.asList(new Class<?>[]{ c }));
+		if (this.staticFields.get(c) == STATIC_FIELDS_DONE)
+			return;
+
+		// Converts c, or waits until the thread that claimed it is done
+		this.strategy.migrateStaticFields(Arrays.asList(new Class<?>[]{ c }));
 	}
 
 }
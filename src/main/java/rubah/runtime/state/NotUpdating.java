@@ -25,6 +25,7 @@ import java.util.HashMap;
 
 import rubah.Rubah;
 import rubah.RubahThread;
+import rubah.runtime.UpdatePoints;
 
 public class NotUpdating extends RubahState {
 
@@ -44,6 +45,7 @@ public class NotUpdating extends RubahState {
 			System.out.println("Total update time: " + updateTime + "ms");
 		}
 		this.doClear();
+		UpdatePoints.updateFinished();
 		return null;
 	}
 
@@ -63,6 +65,7 @@ public class NotUpdating extends RubahState {
 
 	@Override
 	public RubahState installUpdate(Installer installer, Options updateOptions) {
+		UpdatePoints.requestUpdate();
 		this.state.setInstaller(installer);
 		this.state.setOptions(updateOptions);
 
@@ -20,9 +20,8 @@
  *******************************************************************************/
 package rubah.runtime.state.migrator;
 
-import java.util.concurrent.ConcurrentHashMap;
-
 import rubah.runtime.state.migrator.MigratorSubFactory.Migrator;
+import rubah.runtime.state.migrator.UnsafeUtils.ClassOffsets;
 
 
 public class MigratorFactory {
@@ -32,21 +31,23 @@ public class MigratorFactory {
 		this.factories = factories;
 	}
 
-	private ConcurrentHashMap<Class<?>, MigratorSubFactory> map = new ConcurrentHashMap<>();
-
 	public Migrator getMigrator(Class<?> c) {
-		MigratorSubFactory subFactory = map.get(c);
+		ClassOffsets offsets = UnsafeUtils.getInstance().getOffsets(c);
+		CachedMigrator cached = (CachedMigrator) offsets.getMigratorInfo();
 
-		if (subFactory == null)
-			subFactory = this.getFactory(c);
+		// Class metadata outlives this factory, ignore migrators cached by previous updates
+		if (cached != null && cached.owner == this)
+			return cached.migrator;
 
-		return subFactory.buildMigrator();
+		Migrator migrator = this.getFactory(c).buildMigrator();
+		offsets.setMigratorInfo(new CachedMigrator(this, migrator));
+
+		return migrator;
 	}
 
 	private MigratorSubFactory getFactory(Class<?> c) {
 		for (MigratorSubFactory subFactory : this.factories) {
 			if (subFactory.canMigrate(c)) {
-				map.put(c, subFactory);
 				return subFactory;
 			}
 		}
@@ -62,4 +63,14 @@ public class MigratorFactory {
 
 		return ret;
 	}
+
+	private static class CachedMigrator {
+		private final MigratorFactory owner;
+		private final Migrator migrator;
+
+		public CachedMigrator(MigratorFactory owner, Migrator migrator) {
+			this.owner = owner;
+			this.migrator = migrator;
+		}
+	}
 }
@@ -23,15 +23,15 @@ package rubah.runtime.state.migrator;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import rubah.Rubah;
 import rubah.bytecode.transformers.AddForwardField;
 import rubah.bytecode.transformers.ProxyGenerator;
-import rubah.org.apache.commons.collections.map.HashedMap;
 import rubah.runtime.Version;
 import sun.misc.Unsafe;
 
@@ -41,10 +41,12 @@ public class UnsafeUtils {
 	private static final long HASHCODE_OFFSET = 1L;
 	private static final UnsafeUtils instance = new UnsafeUtils();
 
-	private HashedMap classOffsetsMap = new HashedMap();
+	// Only used when Class has no $info field
+	private ConcurrentHashMap<Class<?>, ClassOffsets> classOffsetsMap = new ConcurrentHashMap<>();
 
 	private Map<Class<?>, ProxyOffsets> proxyOffsetsMap = new HashMap<>();
 	private static final Unsafe unsafe;
+	private static final long INFO_OFFSET;
 
 	static {
 		Class<?> unsafeClass = Unsafe.class;
@@ -64,6 +66,15 @@ public class UnsafeUtils {
 		} catch (IllegalAccessException e) {
 			throw new Error(e);
 		}
+
+		long val;
+		try {
+			val = unsafe.objectFieldOffset(Class.class.getDeclaredField(AddForwardField.CLASS_INFO_FIELD_NAME));
+		} catch (NoSuchFieldException | SecurityException e) {
+			// Not running on a processed bootstrap jar, fall back to a map
+			val = -1;
+		}
+		INFO_OFFSET = val;
 	}
 
 
@@ -119,24 +130,69 @@ public class UnsafeUtils {
 		}
 	}
 
-	public synchronized ClassOffsets setOffsets(Class<?> c) {
-		if (c.isInterface())
-			return new ClassOffsets();
-
-		ClassOffsets classOffsets = (ClassOffsets) classOffsetsMap.get(c);
+	public ClassOffsets setOffsets(Class<?> c) {
+		ClassOffsets classOffsets = this.lookupOffsets(c);
 
 		if (classOffsets != null)
 			return classOffsets;
-		else
-			classOffsets = new ClassOffsets();
 
+		classOffsets = this.buildOffsets(c);
+
+		// Racing threads compute the same offsets, first one to publish wins
+		if (INFO_OFFSET < 0) {
+			ClassOffsets existing = this.classOffsetsMap.putIfAbsent(c, classOffsets);
+			return (existing == null ? classOffsets : existing);
+		}
+
+		if (unsafe.compareAndSwapObject(c, INFO_OFFSET, null, classOffsets))
+			return classOffsets;
+
+		return (ClassOffsets) unsafe.getObjectVolatile(c, INFO_OFFSET);
+	}
+
+	public ClassOffsets getOffsets(Class<?> c) {
+		ClassOffsets ret = this.lookupOffsets(c);
+
+		if (ret == null)
+			return setOffsets(c);
+
+		return ret;
+	}
+
+	private ClassOffsets lookupOffsets(Class<?> c) {
+		if (INFO_OFFSET < 0)
+			return this.classOffsetsMap.get(c);
+
+		return (ClassOffsets) unsafe.getObjectVolatile(c, INFO_OFFSET);
+	}
+
+	private ClassOffsets buildOffsets(Class<?> c) {
+		ClassOffsets classOffsets = new ClassOffsets();
+
+		if (c.isInterface())
+			return classOffsets;
+
+		if (c.isArray()) {
+			classOffsets.arrayBase = unsafe.arrayBaseOffset(c);
+			classOffsets.arrayScale = unsafe.arrayIndexScale(c);
+			return classOffsets;
+		}
+
+		long[] parentOffsets = ClassOffsets.NO_OFFSETS;
 		Class<?> parent = c.getSuperclass();
 		if (parent != null)
-			classOffsets.offsets.addAll(setOffsets(parent).offsets);
+			parentOffsets = getOffsets(parent).offsets;
+
+		Field[] fields = c.getDeclaredFields();
+		long[] offsets = new long[parentOffsets.length + fields.length];
+		long[] staticOffsets = new long[fields.length];
+		int nOffsets = parentOffsets.length, nStaticOffsets = 0;
+
+		System.arraycopy(parentOffsets, 0, offsets, 0, parentOffsets.length);
 
 		boolean foundStaticBase = false;
 
-		for (Field f : c.getDeclaredFields()) {
+		for (Field f : fields) {
 			if (Modifier.isStatic(f.getModifiers()) && !foundStaticBase) {
 				classOffsets.staticBase = unsafe.staticFieldBase(f);
 				foundStaticBase = true;
@@ -149,40 +205,66 @@ public class UnsafeUtils {
 				continue;
 
 			if (Modifier.isStatic(f.getModifiers())) {
-				classOffsets.staticOffsets.add(unsafe.staticFieldOffset(f));
+				staticOffsets[nStaticOffsets++] = unsafe.staticFieldOffset(f);
 			} else {
-				classOffsets.offsets.add(unsafe.objectFieldOffset(f));
+				offsets[nOffsets++] = unsafe.objectFieldOffset(f);
 			}
 		}
 
-		classOffsetsMap.put(c, classOffsets);
+		classOffsets.offsets = Arrays.copyOf(offsets, nOffsets);
+		classOffsets.staticOffsets = Arrays.copyOf(staticOffsets, nStaticOffsets);
 
-		return classOffsets;
-	}
-
-	public ClassOffsets getOffsets(Class<?> c) {
-		ClassOffsets ret = (ClassOffsets) this.classOffsetsMap.get(c);
-
-		if (ret == null)
-			return setOffsets(c);
+		try {
+			classOffsets.forwardOffset = unsafe.objectFieldOffset(c.getField(AddForwardField.FIELD_NAME));
+		} catch (NoSuchFieldException e) {
+			// No $forward field
+		}
 
-		return ret;
+		return classOffsets;
 	}
 
 	public static class ClassOffsets {
+		private static final long[] NO_OFFSETS = new long[0];
+
 		private Object staticBase;
-		private LinkedList<Long> offsets = new LinkedList<Long>();
-		private LinkedList<Long> staticOffsets = new LinkedList<Long>();
+		private long[] offsets = NO_OFFSETS;
+		private long[] staticOffsets = NO_OFFSETS;
+		private long forwardOffset = -1;
+		private int arrayBase = -1;
+		private int arrayScale = -1;
+		private volatile Object strategyInfo;
+		private volatile Object migratorInfo;
 
 		public Object getStaticBase() {
 			return staticBase;
 		}
-		public LinkedList<Long> getOffsets() {
+		public long[] getOffsets() {
 			return offsets;
 		}
-		public LinkedList<Long> getStaticOffsets() {
+		public long[] getStaticOffsets() {
 			return staticOffsets;
 		}
+		public long getForwardOffset() {
+			return forwardOffset;
+		}
+		public int getArrayBase() {
+			return arrayBase;
+		}
+		public int getArrayScale() {
+			return arrayScale;
+		}
+		public Object getStrategyInfo() {
+			return strategyInfo;
+		}
+		public void setStrategyInfo(Object strategyInfo) {
+			this.strategyInfo = strategyInfo;
+		}
+		/*default*/ Object getMigratorInfo() {
+			return migratorInfo;
+		}
+		/*default*/ void setMigratorInfo(Object migratorInfo) {
+			this.migratorInfo = migratorInfo;
+		}
 	}
 
 	private HashMap<Class<?>, Object> classToKlass = new HashMap<>();
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.runtime.state.strategy;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import rubah.bytecode.RubahProxy;
+import rubah.runtime.ProxyChecks;
+import rubah.runtime.state.MigratingProgramState;
+
+public class BackgroundLazyMonolithic extends FullyLazyMonolithic {
+	private static final int BATCH_SIZE = 1024;
+	private static final long IDLE_MS = 10;
+	private static final long REPORT_MS = 1000;
+
+	private transient ConcurrentLinkedQueue<Object> frontier;
+	private transient QuiescenceCounter inFlight;
+	private transient Thread background;
+	private final int objectsPerSecond;
+
+	public BackgroundLazyMonolithic(int objectsPerSecond) {
+		this.objectsPerSecond = objectsPerSecond;
+	}
+
+	@Override
+	public MigrationStrategy setState(MigratingProgramState state) {
+		this.frontier = new ConcurrentLinkedQueue<>();
+		this.inFlight = new QuiescenceCounter();
+		this.background = null;
+		return super.setState(state);
+	}
+
+	@Override
+	protected void frontierInstalled(Object obj) {
+		this.frontier.add(obj);
+	}
+
+	// Every migration that may install frontier objects is counted in flight
+
+	@Override
+	public void migrateStaticFields(Collection<Class<?>> classes) {
+		this.inFlight.increment();
+		try {
+			super.migrateStaticFields(classes);
+		} finally {
+			this.inFlight.decrement();
+		}
+	}
+
+	@Override
+	public void migrate(Object fromBase, long fromOffset, Object toBase, long toOffset) {
+		this.inFlight.increment();
+		try {
+			super.migrate(fromBase, fromOffset, toBase, toOffset);
+		} finally {
+			this.inFlight.decrement();
+		}
+	}
+
+	@Override
+	public Object migrate(Object obj) {
+		this.inFlight.increment();
+		try {
+			return super.migrate(obj);
+		} finally {
+			this.inFlight.decrement();
+		}
+	}
+
+	/**
+	 * The heap has no proxies left once the frontier is empty and no
+	 * migration was in flight while checking it, but a migration can start
+	 * right after the check.  ProxyChecks.proxiesRemoved fails if it
+	 * installed any proxy.
+	 */
+	private boolean isFinished() {
+		long installs = ProxyChecks.getInstalls();
+		long total = this.inFlight.getQuiescentTotal();
+
+		if (total < 0 || !this.frontier.isEmpty() || this.inFlight.getQuiescentTotal() != total)
+			return false;
+
+		return ProxyChecks.proxiesRemoved(installs);
+	}
+
+	@Override
+	public void waitForFinish() {
+		if (this.background != null)
+			return;
+
+		// Do not wait, the program resumes while the rest of the heap is converted
+		this.background = new BackgroundMigration();
+		this.background.start();
+	}
+
+	@Override
+	public String getDescription() {
+		return "Background lazy - " + (this.objectsPerSecond > 0 ? this.objectsPerSecond + " objects/s" : "unlimited");
+	}
+
+	private class BackgroundMigration extends Thread {
+		public BackgroundMigration() {
+			super("Rubah background migration");
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			long start = System.currentTimeMillis();
+			long lastReport = start;
+			long visited = 0;
+
+			try {
+				while (true) {
+					Object obj = frontier.poll();
+
+					if (obj == null) {
+						if (isFinished())
+							break;
+						// Program threads may still be installing frontier objects
+						sleep(IDLE_MS);
+						continue;
+					}
+
+					// Skip objects that the program already migrated
+					if (!(obj instanceof RubahProxy))
+						continue;
+
+					migrate(obj);
+
+					if (++visited % BATCH_SIZE != 0)
+						continue;
+
+					long now = System.currentTimeMillis();
+
+					if (objectsPerSecond > 0) {
+						long ahead = (visited * 1000L / objectsPerSecond) - (now - start);
+						if (ahead > 0)
+							sleep(ahead);
+					}
+
+					if (now - lastReport >= REPORT_MS) {
+						System.out.println("Background migration: visited " + visited + " objects");
+						lastReport = now;
+					}
+				}
+			} catch (InterruptedException e) {
+				System.out.println("Background migration interrupted");
+				return;
+			} catch (Throwable e) {
+				System.out.println(e);
+				e.printStackTrace();
+				throw new Error(e);
+			}
+
+			System.out.println(
+					"Background migration finished, visited " + visited + " objects in " + (System.currentTimeMillis() - start) + "ms, converted " + countMigrated() + " in total");
+		}
+	}
+}
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.runtime.state.strategy;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cliffc.high_scale_lib.Counter;
+
+import rubah.runtime.state.migrator.UnsafeUtils;
+import sun.misc.Unsafe;
+
+/**
+ * Lock-free identity map backed by a flat open-addressing Object[] table,
+ * in the spirit of {@link org.cliffc.high_scale_lib.NonBlockingIdentityHashMap}
+ * but without per-entry objects.  Keys and values are claimed with a CAS on
+ * their slot; mappings are never removed nor replaced.
+ *
+ * Resizing is incremental: once a table is too full, a table twice as large
+ * is chained to it and every put copies a chunk of {@link #COPY_CHUNK} old
+ * slots.  Copied empty slots are marked {@link #MOVED} so that no key can be
+ * inserted in the old table anymore.  Keys found in the old table keep their
+ * values there, so lookups never wait for the copy to finish.
+ */
+public class ConcurrentFlatMapStrategy implements MappingStrategy {
+	private static final Unsafe unsafe = UnsafeUtils.getUnsafe();
+	private static final long BASE = unsafe.arrayBaseOffset(Object[].class);
+	private static final int SHIFT = 31 - Integer.numberOfLeadingZeros(unsafe.arrayIndexScale(Object[].class));
+	private static final Object MOVED = new Object();
+	private static final int COPY_CHUNK = 64;
+	private static final long TABLE_OFFSET;
+
+	static {
+		try {
+			TABLE_OFFSET = unsafe.objectFieldOffset(ConcurrentFlatMapStrategy.class.getDeclaredField("table"));
+		} catch (NoSuchFieldException | SecurityException e) {
+			throw new Error(e);
+		}
+	}
+
+	private transient volatile Table table;
+	private transient Counter size;
+
+	public ConcurrentFlatMapStrategy() {
+		this.clear();
+	}
+
+	private void clear() {
+		this.table = new Table(FlatMapStrategy.INITIAL_CAPACITY);
+		this.size = new Counter();
+	}
+
+	private static long keyOffset(int i) {
+		return BASE + (((long) i << 1) << SHIFT);
+	}
+
+	private static long valueOffset(int i) {
+		return BASE + ((((long) i << 1) + 1) << SHIFT);
+	}
+
+	@Override
+	public Object get(Object pre) {
+		Table t = this.table;
+
+		while (true) {
+			int mask = t.mask;
+
+			for (int i = FlatMapStrategy.hash(pre) & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+				Object k = unsafe.getObjectVolatile(t.kvs, keyOffset(i));
+
+				if (k == pre)
+					return waitValue(t, i);
+				if (k == null)
+					return null;
+				if (k == MOVED)
+					break;
+			}
+
+			t = t.next;
+			if (t == null)
+				return null;
+		}
+	}
+
+	@Override
+	public Object put(Object pre, Object post) {
+		Table t = this.table;
+
+		if (t.next != null)
+			this.helpCopy(t);
+
+		return this.put(t, pre, post);
+	}
+
+	private Object put(Table t, Object key, Object value) {
+		while (true) {
+			int mask = t.mask;
+
+			for (int i = FlatMapStrategy.hash(key) & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+				long offset = keyOffset(i);
+				Object k = unsafe.getObjectVolatile(t.kvs, offset);
+
+				if (k == null) {
+					if (unsafe.compareAndSwapObject(t.kvs, offset, null, key)) {
+						unsafe.putObjectVolatile(t.kvs, valueOffset(i), value);
+						this.size.increment();
+						t.slots.increment();
+						if (t.slots.estimate_get() > t.threshold)
+							this.startResize(t);
+						return value;
+					}
+					k = unsafe.getObjectVolatile(t.kvs, offset);
+				}
+
+				if (k == key)
+					return waitValue(t, i);
+				if (k == MOVED)
+					break;
+			}
+
+			// Either a MOVED slot or a full table, continue in the next one
+			this.startResize(t);
+			t = t.next;
+		}
+	}
+
+	private static Object waitValue(Table t, int i) {
+		// The key was just claimed, its value is about to be written
+		while (true) {
+			Object ret = unsafe.getObjectVolatile(t.kvs, valueOffset(i));
+			if (ret != null)
+				return ret;
+			Thread.yield();
+		}
+	}
+
+	private void startResize(Table t) {
+		if (t.next != null)
+			return;
+
+		Table next = new Table((t.mask + 1) << 1);
+		if (!Table.casNext(t, next))
+			return;
+
+		this.helpCopy(t);
+	}
+
+	private void helpCopy(Table t) {
+		Table next = t.next;
+		int capacity = t.mask + 1;
+		int start = t.copyIndex.getAndAdd(COPY_CHUNK);
+
+		if (start >= capacity) {
+			if (t.copyDone.get() == capacity)
+				unsafe.compareAndSwapObject(this, TABLE_OFFSET, t, next);
+			return;
+		}
+
+		int end = Math.min(start + COPY_CHUNK, capacity);
+
+		for (int i = start; i < end; i++) {
+			long offset = keyOffset(i);
+
+			while (true) {
+				Object k = unsafe.getObjectVolatile(t.kvs, offset);
+
+				if (k == null) {
+					if (unsafe.compareAndSwapObject(t.kvs, offset, null, MOVED))
+						break;
+					continue;
+				}
+
+				this.copy(next, k, waitValue(t, i));
+				break;
+			}
+		}
+
+		if (t.copyDone.addAndGet(end - start) == capacity) {
+			// Everything copied, promote the next table
+			unsafe.compareAndSwapObject(this, TABLE_OFFSET, t, next);
+		}
+	}
+
+	private void copy(Table t, Object key, Object value) {
+		while (true) {
+			int mask = t.mask;
+
+			for (int i = FlatMapStrategy.hash(key) & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+				long offset = keyOffset(i);
+				Object k = unsafe.getObjectVolatile(t.kvs, offset);
+
+				if (k == null) {
+					if (unsafe.compareAndSwapObject(t.kvs, offset, null, key)) {
+						unsafe.putObjectVolatile(t.kvs, valueOffset(i), value);
+						t.slots.increment();
+						return;
+					}
+					k = unsafe.getObjectVolatile(t.kvs, offset);
+				}
+
+				if (k == key)
+					return;
+				if (k == MOVED)
+					break;
+			}
+
+			this.startResize(t);
+			t = t.next;
+		}
+	}
+
+	@Override
+	public int countMapped() {
+		return this.size.intValue();
+	}
+
+	private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.clear();
+	}
+
+	@Override
+	public void setUpdatedClassNames(Set<String> updatedClasses) {
+		// Empty
+	}
+
+	private static final class Table {
+		private static final long NEXT_OFFSET;
+
+		static {
+			try {
+				NEXT_OFFSET = unsafe.objectFieldOffset(Table.class.getDeclaredField("next"));
+			} catch (NoSuchFieldException | SecurityException e) {
+				throw new Error(e);
+			}
+		}
+
+		final Object[] kvs;
+		final int mask;
+		final long threshold;
+		final Counter slots = new Counter();
+		final AtomicInteger copyIndex = new AtomicInteger();
+		final AtomicInteger copyDone = new AtomicInteger();
+		volatile Table next;
+
+		Table(int capacity) {
+			this.kvs = new Object[capacity << 1];
+			this.mask = capacity - 1;
+			this.threshold = capacity >> 1;
+		}
+
+		static boolean casNext(Table t, Table next) {
+			return unsafe.compareAndSwapObject(t, NEXT_OFFSET, null, next);
+		}
+	}
+}
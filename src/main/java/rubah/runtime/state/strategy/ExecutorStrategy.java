@@ -20,20 +20,25 @@
  *******************************************************************************/
 package rubah.runtime.state.strategy;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.javatuples.Quartet;
 
+import rubah.runtime.VersionManager;
 import rubah.runtime.state.MigratingProgramState;
+import rubah.runtime.state.migrator.MigratorSubFactory;
+import rubah.runtime.state.migrator.MigratorSubFactory.Migrator;
+import rubah.runtime.state.migrator.StaticFieldsMigratorFactory;
 
 /*default*/ abstract class ExecutorStrategy extends SingleThreaded {
+		private static final int STATIC_CHUNK = 64;
 		private transient ConcurrentLinkedDeque<Quartet<Object, Long, Object, Long>> queued = new ConcurrentLinkedDeque<>();
-		protected transient StrippedCounter inFlight;
+		protected transient QuiescenceCounter inFlight;
 		protected transient ExecutorService executor;
 		protected final int nThreads;
 
@@ -45,12 +50,82 @@ import rubah.runtime.state.MigratingProgramState;
 		@Override
 		public MigrationStrategy setState(MigratingProgramState state) {
 			this.queued = new ConcurrentLinkedDeque<>();
-			this.inFlight = new StrippedCounter(this);
+			this.inFlight = new QuiescenceCounter();
+			this.executor = null;
 			return super.setState(state);
 		}
 
 		protected abstract ExecutorService getExecutor();
 
+		// Start the executor before waitForFinish, so that static roots and their closure run together
+		protected boolean startExecutorEarly() {
+			return true;
+		}
+
+		private void startExecutor() {
+			if (this.executor != null)
+				return;
+
+			this.executor = this.getExecutor();
+
+			while (!this.queued.isEmpty()) {
+				Quartet<Object, Long, Object, Long> el = this.queued.poll();
+				this.migrate(el.getValue0(), el.getValue1(), el.getValue2(), el.getValue3());
+			}
+		}
+
+		@Override
+		public void migrateStaticFields(Collection<Class<?>> classes) {
+			// Only the pass at the start of the update runs on the workers,
+			// later calls come from ensureStaticFieldsMigrated and must convert in place
+			if (!this.startExecutorEarly() || this.executor != null) {
+				super.migrateStaticFields(classes);
+				return;
+			}
+
+			this.startExecutor();
+
+			final MigratorSubFactory staticMigratorFactory =
+					new StaticFieldsMigratorFactory(this, VersionManager.getInstance().getLatestVersion());
+
+			// Filter on this thread, only the conversion runs on the workers
+			List<Class<?>> roots = new ArrayList<>(classes.size());
+			for (Class<?> c : classes)
+				if (staticMigratorFactory.canMigrate(c))
+					roots.add(c);
+
+			for (int i = 0 ; i < roots.size() ; i += STATIC_CHUNK) {
+				final List<Class<?>> chunk = roots.subList(i, Math.min(roots.size(), i + STATIC_CHUNK));
+				this.inFlight.increment();
+				this.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							for (Class<?> c : chunk) {
+								// Converted already if a conversion method needed it first
+								if (!state.claimStaticFields(c))
+									continue;
+
+								try {
+									Migrator migrator = staticMigratorFactory.buildMigrator();
+									Object newC = migrator.migrate(c);
+									migrator.followReferences(newC);
+								} finally {
+									state.staticFieldsMigrated(c);
+								}
+							}
+						} catch (Throwable e) {
+							System.out.println(e);
+							e.printStackTrace();
+							throw new Error(e);
+						} finally {
+							inFlight.decrement();
+						}
+					}
+				});
+			}
+		}
+
 		@Override
 		protected void migrateStatic(Object base, long offset) {
 			super.migrate(base, offset, base, offset);
@@ -95,22 +170,9 @@ import rubah.runtime.state.MigratingProgramState;
 		@Override
 		public void waitForFinish() {
 
-			this.executor = this.getExecutor();
+			this.startExecutor();
 
-			while (!this.queued.isEmpty()) {
-				Quartet<Object, Long, Object, Long> el = this.queued.poll();
-				this.migrate(el.getValue0(), el.getValue1(), el.getValue2(), el.getValue3());
-			}
-
-			synchronized (this) {
-				while (this.inFlight.get() != 0) {
-					try {
-						this.wait();
-					} catch (InterruptedException e) {
-						continue;
-					}
-				}
-			}
+			this.inFlight.await();
 
 			this.beforeShutdown();
 
@@ -131,109 +193,4 @@ import rubah.runtime.state.MigratingProgramState;
 		public String getDescription() {
 			return super.getDescription() + " - " + this.nThreads + " threads";
 		}
-
-		private static class StrippedCounter {
-			private static final int MIN_THRESHOLD = 50;
-			private Object notify;
-			private LinkedList<Strip> strips = new LinkedList<Strip>();
-			private ThreadLocal<Strip> counter = new ThreadLocal<Strip>() {
-				@Override
-				protected Strip initialValue() {
-					Strip ret = new Strip();
-					synchronized (strips) {
-						strips.add(ret);
-					}
-					return ret;
-				}
-			};
-
-			public StrippedCounter(Object notify) {
-				this.notify = notify;
-			}
-
-			public void increment() {
-				Strip s = this.counter.get();
-				s.lock.lock();
-				try {
-					s.value++;
-				} finally {
-					s.lock.unlock();
-				}
-			}
-
-			public void decrement() {
-				Strip s = this.counter.get();
-				int newValue;
-				s.lock.lock();
-				try {
-					newValue = --(s.value);
-				} finally {
-					s.lock.unlock();
-				}
-
-				if (newValue <= 0) {
-					if (this.redistribute() == 0) {
-						synchronized (notify) {
-							notify.notifyAll();
-						}
-					}
-				}
-			}
-
-			private int redistribute() {
-				int ret = 0;
-
-				synchronized (strips) {
-					for (Strip strip : strips) {
-						strip.lock.lock();
-					}
-
-					for (Strip strip : strips) {
-						ret += strip.value;
-						strip.value = 0;
-					}
-
-					if (ret < MIN_THRESHOLD) {
-						this.counter.get().value = ret;
-					} else {
-						int newVal = ret / strips.size();
-						int lastVal = ret - (newVal * (strips.size() - 1));
-						for (Strip strip : strips) {
-							if (strip == strips.getLast())
-								strip.value = lastVal;
-							else
-								strip.value = newVal;
-						}
-					}
-
-					for (Strip strip : strips) {
-						strip.lock.unlock();
-					}
-				}
-
-				return ret;
-			}
-
-			public int get() {
-				int ret = 0;
-
-				synchronized (strips) {
-					for (Strip strip : strips) {
-						strip.lock.lock();
-					}
-
-					for (Strip strip : strips) {
-						ret += strip.value;
-						strip.lock.unlock();
-					}
-				}
-
-				return ret;
-			}
-
-			private static class Strip {
-				int value = 0;
-				Lock lock = new ReentrantLock();
-			}
-		}
 }
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.runtime.state.strategy;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Identity map backed by a single open-addressing Object[] table with keys
+ * and values in adjacent slots, so mapping an object allocates nothing.
+ *
+ * Growing the table does not rehash everything at once: the old table is
+ * kept aside and every put moves a few of its slots to the new table, so
+ * the pause of a resize is bounded by {@link #COPY_STEP}.
+ */
+public class FlatMapStrategy implements MappingStrategy {
+	/*default*/ static final int INITIAL_CAPACITY = 1 << 16;
+	/*default*/ static final int COPY_STEP = 8;
+
+	private transient Object[] table;
+	private transient Object[] old;
+	private transient int oldIndex;
+	private transient int size;
+	private transient int threshold;
+
+	public FlatMapStrategy() {
+		this.clear();
+	}
+
+	/*default*/ static int hash(Object key) {
+		int h = System.identityHashCode(key);
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return h;
+	}
+
+	private void clear() {
+		this.table = new Object[2 * INITIAL_CAPACITY];
+		this.old = null;
+		this.oldIndex = 0;
+		this.size = 0;
+		this.threshold = INITIAL_CAPACITY / 2;
+	}
+
+	@Override
+	public Object get(Object pre) {
+		Object ret = lookup(this.table, pre);
+
+		if (ret == null && this.old != null)
+			ret = lookup(this.old, pre);
+
+		return ret;
+	}
+
+	@Override
+	public Object put(Object pre, Object post) {
+		if (this.old != null) {
+			Object ret = lookup(this.old, pre);
+			if (ret != null)
+				return ret;
+			this.copySome();
+		}
+
+		Object ret = insert(this.table, pre, post);
+		if (ret != null)
+			return ret;
+
+		if (++this.size > this.threshold)
+			this.startResize();
+
+		return post;
+	}
+
+	private static Object lookup(Object[] table, Object key) {
+		int mask = (table.length >> 1) - 1;
+
+		for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+			Object k = table[i << 1];
+
+			if (k == key)
+				return table[(i << 1) + 1];
+			if (k == null)
+				return null;
+		}
+	}
+
+	/**
+	 * @return The value already mapped to key, or null if key was inserted
+	 */
+	private static Object insert(Object[] table, Object key, Object value) {
+		int mask = (table.length >> 1) - 1;
+
+		for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+			Object k = table[i << 1];
+
+			if (k == key)
+				return table[(i << 1) + 1];
+
+			if (k == null) {
+				table[i << 1] = key;
+				table[(i << 1) + 1] = value;
+				return null;
+			}
+		}
+	}
+
+	private void startResize() {
+		if (this.old != null) {
+			// Previous resize still in progress, finish it first
+			while (this.old != null)
+				this.copySome();
+		}
+
+		this.old = this.table;
+		this.oldIndex = 0;
+		this.table = new Object[2 * this.old.length];
+		this.threshold = this.old.length >> 1;
+	}
+
+	private void copySome() {
+		Object[] old = this.old;
+		int end = Math.min(this.oldIndex + COPY_STEP, old.length >> 1);
+
+		for (int i = this.oldIndex; i < end; i++) {
+			Object k = old[i << 1];
+			if (k != null)
+				insert(this.table, k, old[(i << 1) + 1]);
+		}
+
+		this.oldIndex = end;
+
+		if (end == (old.length >> 1))
+			this.old = null;
+	}
+
+	@Override
+	public int countMapped() {
+		return this.size;
+	}
+
+	private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.clear();
+	}
+
+	@Override
+	public void setUpdatedClassNames(Set<String> updatedClasses) {
+		// Empty
+	}
+}
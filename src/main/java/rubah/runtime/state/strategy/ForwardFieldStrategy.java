@@ -25,25 +25,12 @@ import java.util.Set;
 
 import org.cliffc.high_scale_lib.Counter;
 
-import rubah.bytecode.transformers.AddForwardField;
 import rubah.runtime.state.migrator.UnsafeUtils;
 
 public class ForwardFieldStrategy implements MappingStrategy {
 //	private transient Object visitedMarker = new Object();
 
 //	private transient Map<Object, Object> forwardOffsets = new ConcurrentHashMap<Object, Object>();
-	private static final long INFO_OFFSET;
-
-	static {
-		long val;
-		try {
-			val = UnsafeUtils.getUnsafe().objectFieldOffset(Class.class.getDeclaredField(AddForwardField.CLASS_INFO_FIELD_NAME));
-		} catch (NoSuchFieldException | SecurityException e) {
-			val = 0;
-			// Ignore, this class is loaded in a different context probably
-		}
-		INFO_OFFSET = val;
-	}
 	private transient Counter cnt = new Counter();
 
 	private MappingStrategy delegate;
@@ -52,33 +39,9 @@ public class ForwardFieldStrategy implements MappingStrategy {
 		this.delegate = delegate;
 	}
 
-	private Long setForwardOffset(Class<?> c) {
-		long offset;
-		try {
-			if (c.isArray())
-				offset = -1;
-			else
-				offset = MigrationStrategy.unsafe.objectFieldOffset(c.getField(AddForwardField.FIELD_NAME));
-		} catch (SecurityException e) {
-			throw new Error(e);
-		} catch (NoSuchFieldException e) {
-			offset = -1;
-		}
-//		this.forwardOffsets.put(c, offset);
-		MigrationStrategy.unsafe.putObject(c, INFO_OFFSET, new Long(offset));
-
-		return offset;
-	}
-
 	@Override
 	public Object get(Object pre) {
-		Class<?> c = pre.getClass();
-
-		Long offset = (Long) MigrationStrategy.unsafe.getObject(c, INFO_OFFSET);
-
-		if (offset == null) {
-			offset = setForwardOffset(c);
-		}
+		long offset = UnsafeUtils.getInstance().getOffsets(pre.getClass()).getForwardOffset();
 
 		if (offset < 0)
 			return this.delegate.get(pre);
@@ -91,12 +54,7 @@ public class ForwardFieldStrategy implements MappingStrategy {
 
 	@Override
 	public Object put(Object pre, Object post) {
-		Class<?> c = pre.getClass();
-
-		Long offset = (Long) MigrationStrategy.unsafe.getObject(c, INFO_OFFSET);
-
-		if (offset == null)
-			offset = setForwardOffset(c);
+		long offset = UnsafeUtils.getInstance().getOffsets(pre.getClass()).getForwardOffset();
 
 		if (offset < 0) {
 			return this.delegate.put(pre, post);
@@ -30,7 +30,6 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
@@ -44,6 +43,7 @@ import rubah.bytecode.transformers.AddTraverseMethod;
 import rubah.bytecode.transformers.ProxyGenerator;
 import rubah.framework.Clazz;
 import rubah.framework.Type;
+import rubah.runtime.ProxyChecks;
 import rubah.runtime.Version;
 import rubah.runtime.VersionManager;
 import rubah.runtime.state.MigratingProgramState;
@@ -51,11 +51,12 @@ import rubah.runtime.state.migrator.MigratorSubFactory;
 import rubah.runtime.state.migrator.MigratorSubFactory.Migrator;
 import rubah.runtime.state.migrator.StaticFieldsMigratorFactory;
 import rubah.runtime.state.migrator.UnsafeUtils;
+import rubah.runtime.state.migrator.UnsafeUtils.ClassOffsets;
 
 @SuppressWarnings("restriction")
 public class FullyLazyMonolithic implements MigrationStrategy {
-	private static final long INFO_OFFSET;
 	public static final int SMALL_ARRAY_SIZE = 1025;
+	private transient MigratingProgramState state;
 	private transient Counter counter;
 	public static final HashSet<String> BLACK_LIST = new HashSet<String>(Arrays.asList(new String[]{
 			FileDescriptor.class.getName()
@@ -64,17 +65,6 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 	private transient rubah.runtime.state.ConcurrentHashMap<Object, Object> map;
 	private Set<String> transformedClasses, outdatedClasses;
 
-	static {
-		long val;
-		try {
-			val = UnsafeUtils.getUnsafe().objectFieldOffset(Class.class.getDeclaredField(AddForwardField.CLASS_INFO_FIELD_NAME));
-		} catch (NoSuchFieldException | SecurityException e) {
-			val = 0;
-			// Ignore, this class is loaded in a different context probably
-		}
-		INFO_OFFSET = val;
-	}
-
 	@Override
 	public void waitForFinish() {
 		return;
@@ -97,6 +87,7 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 
 	@Override
 	public MigrationStrategy setState(MigratingProgramState state) {
+		this.state = state;
 		this.counter = new Counter();
 		this.transformedClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 		this.outdatedClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
@@ -125,12 +116,19 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 		MigratorSubFactory staticMigratorFactory = new StaticFieldsMigratorFactory(this, v1);
 
 		for (Class<?> c : classes) {
-			if (!staticMigratorFactory.canMigrate(c))
+			if (!this.state.claimStaticFields(c))
 				continue;
 
-			Migrator migrator = staticMigratorFactory.buildMigrator();
-			Object newC = migrator.migrate(c);
-			migrator.followReferences(newC);
+			try {
+				if (!staticMigratorFactory.canMigrate(c))
+					continue;
+
+				Migrator migrator = staticMigratorFactory.buildMigrator();
+				Object newC = migrator.migrate(c);
+				migrator.followReferences(newC);
+			} finally {
+				this.state.staticFieldsMigrated(c);
+			}
 		}
 	}
 
@@ -162,7 +160,9 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 		// Updated classes were already visited, no need to visit them again or install proxies
 		switch (info.traverseAction) {
 		case INSTALL_FRONTIER:
+			ProxyChecks.proxiesInstalled(info.frontierClass);
 			UnsafeUtils.getInstance().changeClass(fromObj, info.proxyClassToken);
+			this.frontierInstalled(fromObj);
 			break;
 		case MIGRATE:
 			// Migrate directly
@@ -180,6 +180,7 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 				this.counter.increment();
 //				for (long offset : this.getConversionInfo(info.proxyClass).fieldOffsets)
 //					this.traverse(ret, offset, ret, offset);
+				ProxyChecks.proxiesInstalled(info.proxyClass);
 				UnsafeUtils.getInstance().changeClass(proxy, info.proxyClassToken);
 			} catch (ReflectiveOperationException | IllegalArgumentException e) {
 				throw new Error(e);
@@ -204,6 +205,7 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 
 			// Install proxy with CAS because program might write a new value to this field
 			unsafe.compareAndSwapObject(toBase, toOffset, toObj, proxy);
+			this.frontierInstalled(proxy);
 		}
 		break;
 		case NONE:
@@ -213,6 +215,10 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 		}
 	}
 
+	protected void frontierInstalled(Object obj) {
+		// Empty
+	}
+
 	private Object getMappedObject(Object obj, ClassConversionInfo info) {
 
 		Object ret;
@@ -477,11 +483,12 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 	}
 
 	private ClassConversionInfo getConversionInfo(Class<?> c) {
-		ClassConversionInfo ret = (ClassConversionInfo) UnsafeUtils.getUnsafe().getObject(c, INFO_OFFSET);
+		ClassOffsets offsets = UnsafeUtils.getInstance().getOffsets(c);
+		ClassConversionInfo ret = (ClassConversionInfo) offsets.getStrategyInfo();
 
 		if (ret == null) {
 			ret = this.buildConversionInfo(c);
-			UnsafeUtils.getUnsafe().putObject(c, INFO_OFFSET, ret);
+			offsets.setStrategyInfo(ret);
 		}
 
 		return ret;
@@ -546,8 +553,8 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 					ret.mappingAction = MappingAction.MAP;
 					ret.traverseAction = TraverseAction.MIGRATE;
 
-					ret.baseArrayIndex = unsafe.arrayBaseOffset(c);
-					ret.scaleArray = unsafe.arrayIndexScale(c);
+					ret.baseArrayIndex = UnsafeUtils.getInstance().getOffsets(c).getArrayBase();
+					ret.scaleArray = UnsafeUtils.getInstance().getOffsets(c).getArrayScale();
 
 					Version v0 = v1.getPrevious();
 					String originalName = v0.getOriginalName(c.getComponentType().getName());
@@ -567,12 +574,7 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 						//							ret.mappingAction = MappingAction.SAME;
 					}
 				} else {
-					LinkedList<Long> offsets = UnsafeUtils.getInstance().getOffsets(c).getOffsets();
-					ret.fieldOffsets = new long[offsets.size()];
-					int i = 0;
-					for (Long offset : offsets) {
-						ret.fieldOffsets[i++] = offset;
-					}
+					ret.fieldOffsets = UnsafeUtils.getInstance().getOffsets(c).getOffsets();
 					ret.mappingAction = MappingAction.MAP;
 					try {
 						Field forwardField = c.getField(AddForwardField.FIELD_NAME);
@@ -611,8 +613,8 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 				if (c.isArray()) {
 					ret.mappingAction = MappingAction.ARRAY;
 					ret.traverseAction = TraverseAction.MIGRATE;
-					ret.baseArrayIndex = unsafe.arrayBaseOffset(c);
-					ret.scaleArray = unsafe.arrayIndexScale(c);
+					ret.baseArrayIndex = UnsafeUtils.getInstance().getOffsets(c).getArrayBase();
+					ret.scaleArray = UnsafeUtils.getInstance().getOffsets(c).getArrayScale();
 
 					String originalName = c.getComponentType().getName();
 
@@ -639,18 +641,15 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 						Class<?> newClass = Class.forName(newUpdatableName, true, Rubah.getLoader());
 						ret.postClassToken = UnsafeUtils.getInstance().getClassToken(newClass);
 						ret.migrateAction = MigrateAction.MIGRATE_OUTDATED;
-						ret.proxyClassToken = UnsafeUtils.getInstance().getClassToken(Class.forName(ProxyGenerator.generateProxyName(newClass.getName()), false, Rubah.getLoader()));
+						ret.frontierClass = Class.forName(ProxyGenerator.generateProxyName(newClass.getName()), false, Rubah.getLoader());
+						ret.proxyClassToken = UnsafeUtils.getInstance().getClassToken(ret.frontierClass);
 					} else {
 						ret.migrateAction = MigrateAction.NONE;
-						ret.proxyClassToken = UnsafeUtils.getInstance().getClassToken(Class.forName(ProxyGenerator.generateProxyName(c.getName()), false, Rubah.getLoader()));
+						ret.frontierClass = ret.proxyClass;
+						ret.proxyClassToken = UnsafeUtils.getInstance().getClassToken(ret.frontierClass);
 					}
 					ret.traverseAction = TraverseAction.INSTALL_FRONTIER;
-					LinkedList<Long> offsets = UnsafeUtils.getInstance().getOffsets(c).getOffsets();
-					ret.fieldOffsets = new long[offsets.size()];
-					int i = 0;
-					for (Long offset : offsets) {
-						ret.fieldOffsets[i++] = offset;
-					}
+					ret.fieldOffsets = UnsafeUtils.getInstance().getOffsets(c).getOffsets();
 					ret.mappingAction = MappingAction.MAP;
 					try {
 						Field forwardField = c.getField(AddForwardField.FIELD_NAME);
@@ -706,6 +705,7 @@ public class FullyLazyMonolithic implements MigrationStrategy {
 		Object postClassToken;
 		Class<?> proxyClass;
 		Object proxyClassToken;
+		Class<?> frontierClass;
 		RubahProxy conversionMethodHolder;
 		long baseArrayIndex, scaleArray;
 		TraverseAction traverseAction;
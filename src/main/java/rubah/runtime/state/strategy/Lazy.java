@@ -44,6 +44,12 @@ public class Lazy extends ThreadPoolStrategy {
 		super.waitForFinish();
 	}
 	
+	@Override
+	protected boolean startExecutorEarly() {
+		// Objects are only migrated eagerly on the second waitForFinish
+		return false;
+	}
+
 	@Override
 	public Object migrate(Object obj) {
 		this.readWriteLock.readLock().lock();;
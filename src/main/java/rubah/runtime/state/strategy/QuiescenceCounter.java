@@ -0,0 +1,201 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.runtime.state.strategy;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import rubah.runtime.state.migrator.UnsafeUtils;
+import sun.misc.Unsafe;
+
+/**
+ * Counts in-flight migration tasks without taking any lock.
+ *
+ * Every thread owns a padded cell with two monotonic counters, tasks it
+ * submitted and tasks it completed, that only that thread writes.  The
+ * counter is quiescent when two consecutive scans over all cells read the
+ * same totals and submitted equals completed: because the counters never
+ * decrease, equal scans mean nothing changed in between, so the totals are a
+ * consistent snapshot taken at a point where no task was in flight.
+ *
+ * Cells of threads that exited are folded into base totals by the next scan,
+ * so that short-lived threads do not make the cells pile up.
+ */
+/*default*/ final class QuiescenceCounter {
+	private static final Unsafe unsafe = UnsafeUtils.getUnsafe();
+	private static final long SUBMITTED_OFFSET, COMPLETED_OFFSET;
+	private static final int SPINS = 16;
+	private static final long PARK_NS = 50000L;
+
+	static {
+		try {
+			SUBMITTED_OFFSET = unsafe.objectFieldOffset(CellValues.class.getDeclaredField("submitted"));
+			COMPLETED_OFFSET = unsafe.objectFieldOffset(CellValues.class.getDeclaredField("completed"));
+		} catch (NoSuchFieldException | SecurityException e) {
+			throw new Error(e);
+		}
+	}
+
+	private final AtomicReference<Cells> cells = new AtomicReference<Cells>(new Cells(new Cell[0], 0, 0));
+	private final ThreadLocal<Cell> cell = new ThreadLocal<Cell>() {
+		@Override
+		protected Cell initialValue() {
+			Cell ret = new Cell(Thread.currentThread());
+
+			while (true) {
+				Cells old = cells.get();
+				Cell[] updated = Arrays.copyOf(old.live, old.live.length + 1);
+				updated[old.live.length] = ret;
+				if (cells.compareAndSet(old, new Cells(updated, old.submitted, old.completed)))
+					return ret;
+			}
+		}
+	};
+
+	public void increment() {
+		Cell c = this.cell.get();
+		unsafe.putOrderedLong(c, SUBMITTED_OFFSET, c.submitted + 1);
+	}
+
+	public void decrement() {
+		Cell c = this.cell.get();
+		unsafe.putOrderedLong(c, COMPLETED_OFFSET, c.completed + 1);
+	}
+
+	/**
+	 * @return An estimate of the tasks in flight, exact only when quiescent
+	 */
+	public long get() {
+		Cells cells = this.cells.get();
+		long ret = cells.submitted - cells.completed;
+
+		for (Cell c : cells.live)
+			ret += c.submitted - c.completed;
+
+		return ret;
+	}
+
+	// Threads that have a cell, exited threads are only dropped by the next scan
+	/*default*/ int countCells() {
+		return this.cells.get().live.length;
+	}
+
+	public boolean isQuiescent() {
+		return this.getQuiescentTotal() >= 0;
+	}
+
+	/**
+	 * @return The tasks submitted so far if quiescent, -1 otherwise.  Two
+	 * equal results mean that no task was in flight in between
+	 */
+	public long getQuiescentTotal() {
+		this.removeExited();
+
+		Cells first = this.cells.get();
+		long submitted = first.submitted, completed = first.completed;
+
+		for (Cell c : first.live) {
+			completed += c.completed;
+			submitted += c.submitted;
+		}
+
+		if (submitted != completed)
+			return -1;
+
+		Cells second = this.cells.get();
+
+		if (first != second)
+			return -1;
+
+		long submitted2 = second.submitted, completed2 = second.completed;
+
+		for (Cell c : second.live) {
+			completed2 += c.completed;
+			submitted2 += c.submitted;
+		}
+
+		return (submitted == submitted2 && completed == completed2 ? submitted : -1);
+	}
+
+	// An exited thread never writes its cell again, fold its counters into the base totals
+	private void removeExited() {
+		while (true) {
+			Cells old = this.cells.get();
+			Cell[] live = new Cell[old.live.length];
+			long submitted = old.submitted, completed = old.completed;
+			int n = 0;
+
+			for (Cell c : old.live) {
+				if (c.owner.isAlive()) {
+					live[n++] = c;
+				} else {
+					submitted += c.submitted;
+					completed += c.completed;
+				}
+			}
+
+			if (n == live.length || this.cells.compareAndSet(old, new Cells(Arrays.copyOf(live, n), submitted, completed)))
+				return;
+		}
+	}
+
+	public void await() {
+		for (int spins = 0; !this.isQuiescent(); spins++) {
+			if (spins < SPINS)
+				Thread.yield();
+			else
+				LockSupport.parkNanos(PARK_NS);
+		}
+	}
+
+	// Padding keeps cells owned by different threads in different cache lines
+	private static class CellPadding {
+		long p0, p1, p2, p3, p4, p5, p6, p7;
+	}
+
+	private static class CellValues extends CellPadding {
+		volatile long submitted;
+		volatile long completed;
+	}
+
+	private static final class Cell extends CellValues {
+		long q0, q1, q2, q3, q4, q5, q6, q7;
+		final Thread owner;
+
+		Cell(Thread owner) {
+			this.owner = owner;
+		}
+	}
+
+	// Replaced as a whole, so that scans read the live cells and the base totals together
+	private static final class Cells {
+		final Cell[] live;
+		// Counters of the threads that exited
+		final long submitted, completed;
+
+		Cells(Cell[] live, long submitted, long completed) {
+			this.live = live;
+			this.submitted = submitted;
+			this.completed = completed;
+		}
+	}
+}
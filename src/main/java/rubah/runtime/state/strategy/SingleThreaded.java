@@ -47,6 +47,8 @@ import rubah.runtime.state.migrator.UpdatableObjectMigratorFactory;
 import rubah.runtime.state.migrator.MigratorSubFactory.Migrator;
 
 public class SingleThreaded implements MigrationStrategy {
+	public static final String STATIC_TIMES_PROPERTY = "rubah.staticFieldsTimes";
+	private static final boolean STATIC_TIMES = Boolean.getBoolean(STATIC_TIMES_PROPERTY);
 
 	protected transient MigratingProgramState state;
 	protected MappingStrategy mapping;
@@ -182,15 +184,27 @@ public class SingleThreaded implements MigrationStrategy {
 
 			long time = System.currentTimeMillis();
 
-			if (!staticMigratorFactory.canMigrate(c))
+			if (!this.state.claimStaticFields(c))
 				continue;
 
-			Migrator migrator = staticMigratorFactory.buildMigrator();
-			Object newC = migrator.migrate(c);
-			migrator.followReferences(newC);
-			times.add(new Pair<String, Long>(c.getName(), (System.currentTimeMillis() - time)));
+			try {
+				if (!staticMigratorFactory.canMigrate(c))
+					continue;
+
+				Migrator migrator = staticMigratorFactory.buildMigrator();
+				Object newC = migrator.migrate(c);
+				migrator.followReferences(newC);
+			} finally {
+				this.state.staticFieldsMigrated(c);
+			}
+
+			if (STATIC_TIMES)
+				times.add(new Pair<String, Long>(c.getName(), (System.currentTimeMillis() - time)));
 		}
 
+		if (!STATIC_TIMES)
+			return;
+
 		Collections.sort(times, new Comparator<Pair<String, Long>>() {
 			@Override
 			public int compare(Pair<String, Long> o1, Pair<String, Long> o2) {
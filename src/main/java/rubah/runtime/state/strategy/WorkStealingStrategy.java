@@ -0,0 +1,371 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.runtime.state.strategy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import rubah.runtime.state.MigratingProgramState;
+
+/**
+ * Parallel traversal that keeps the pending reference slots in per-worker
+ * deques instead of submitting one task per slot to a shared executor.
+ *
+ * Each worker pushes and pops (base, offset) pairs at the bottom of its own
+ * deque, idle workers steal up to half of a victim's deque from the top.
+ * Work items are stored in flat arrays, so no object is allocated per slot.
+ */
+public class WorkStealingStrategy extends SingleThreaded {
+	private static final String WORKER_THREAD_NAME = "rubahMigrationWorker-";
+	private static final int INITIAL_CAPACITY = 1 << 12;
+	/*default*/ static final int MAX_STEAL_BATCH = 256;
+	private static final int IDLE_SPINS = 64;
+	private static final long IDLE_PARK_NS = 50000L;
+
+	protected final int nThreads;
+	private transient WorkDeque[] deques;
+	private transient Worker[] workers;
+	private transient AtomicInteger active;
+	private transient volatile Throwable failure;
+	private transient int nextRoot;
+
+	public WorkStealingStrategy(MappingStrategy mapping, int nThreads) {
+		super(mapping);
+		this.nThreads = nThreads;
+	}
+
+	@Override
+	public MigrationStrategy setState(MigratingProgramState state) {
+		this.deques = new WorkDeque[this.nThreads];
+		for (int i = 0; i < this.nThreads; i++)
+			this.deques[i] = new WorkDeque();
+		this.workers = null;
+		this.active = new AtomicInteger(this.nThreads);
+		this.failure = null;
+		this.nextRoot = 0;
+		return super.setState(state);
+	}
+
+	@Override
+	protected void migrateStatic(Object base, long offset) {
+		super.migrate(base, offset, base, offset);
+	}
+
+	@Override
+	public void migrate(Object fromBase, long fromOffset, Object toBase, long toOffset) {
+		if (unsafe.getObject(fromBase, fromOffset) == null)
+			return;
+
+		Thread current = Thread.currentThread();
+
+		if (current instanceof Worker && ((Worker) current).getStrategy() == this) {
+			((Worker) current).deque.push(fromBase, fromOffset, toBase, toOffset);
+			return;
+		}
+
+		if (this.workers == null) {
+			// Roots found by the update thread before the workers start
+			// Spread them across all deques so that every worker starts busy
+			this.deques[this.nextRoot].push(fromBase, fromOffset, toBase, toOffset);
+			this.nextRoot = (this.nextRoot + 1) % this.nThreads;
+			return;
+		}
+
+		// Some other thread after the workers started, migrate in place
+		super.migrate(fromBase, fromOffset, toBase, toOffset);
+	}
+
+	@Override
+	public void waitForFinish() {
+		Worker[] workers = new Worker[this.nThreads];
+		for (int i = 0; i < this.nThreads; i++)
+			workers[i] = new Worker(i);
+
+		this.workers = workers;
+
+		for (Worker worker : workers)
+			worker.start();
+
+		for (Worker worker : workers) {
+			while (true) {
+				try {
+					worker.join();
+					break;
+				} catch (InterruptedException e) {
+					continue;
+				}
+			}
+		}
+
+		if (this.failure != null)
+			throw new Error(this.failure);
+
+		for (Worker worker : workers)
+			System.out.println("\t" + worker.getStatistics());
+	}
+
+	@Override
+	public String getDescription() {
+		return super.getDescription() + " - " + this.nThreads + " threads";
+	}
+
+	@Override
+	public String toString() {
+		long pending = 0;
+		for (WorkDeque deque : this.deques)
+			pending += deque.size();
+		return "" + pending;
+	}
+
+	private class Worker extends Thread {
+		private final int index;
+		private final WorkDeque deque;
+		private final Object[] refsBuffer = new Object[2 * MAX_STEAL_BATCH];
+		private final long[] offsetsBuffer = new long[2 * MAX_STEAL_BATCH];
+		private long processed, steals, stolen, time;
+
+		public Worker(int index) {
+			super(WORKER_THREAD_NAME + index);
+			this.index = index;
+			this.deque = deques[index];
+			this.setDaemon(true);
+		}
+
+		public WorkStealingStrategy getStrategy() {
+			return WorkStealingStrategy.this;
+		}
+
+		@Override
+		public void run() {
+			long time = System.currentTimeMillis();
+
+			try {
+				while (true) {
+					if (this.deque.pop(this.refsBuffer, this.offsetsBuffer)) {
+						WorkStealingStrategy.super.migrate(
+								this.refsBuffer[0], this.offsetsBuffer[0],
+								this.refsBuffer[1], this.offsetsBuffer[1]);
+						this.refsBuffer[0] = null;
+						this.refsBuffer[1] = null;
+						this.processed++;
+						continue;
+					}
+
+					if (!this.findWork())
+						break;
+				}
+			} catch (Throwable e) {
+				System.out.println(e);
+				e.printStackTrace();
+				failure = e;
+			}
+
+			this.time = System.currentTimeMillis() - time;
+		}
+
+		private boolean findWork() {
+			active.decrementAndGet();
+
+			for (int spins = 0 ; ; spins++) {
+				if (failure != null)
+					return false;
+
+				for (int i = 1; i < nThreads; i++) {
+					WorkDeque victim = deques[(this.index + i) % nThreads];
+
+					if (victim.size() <= 0)
+						continue;
+
+					active.incrementAndGet();
+					int n = victim.steal(this.refsBuffer, this.offsetsBuffer);
+					if (n > 0) {
+						for (int j = 0; j < 2 * n; j += 2) {
+							this.deque.push(
+									this.refsBuffer[j], this.offsetsBuffer[j],
+									this.refsBuffer[j + 1], this.offsetsBuffer[j + 1]);
+							this.refsBuffer[j] = null;
+							this.refsBuffer[j + 1] = null;
+						}
+						this.steals++;
+						this.stolen += n;
+						return true;
+					}
+					active.decrementAndGet();
+				}
+
+				// Only workers that hold or are stealing work count as active
+				// Idle workers have empty deques, so nothing is left to process
+				if (active.get() == 0)
+					return false;
+
+				if (spins < IDLE_SPINS)
+					Thread.yield();
+				else
+					LockSupport.parkNanos(IDLE_PARK_NS);
+			}
+		}
+
+		public String getStatistics() {
+			return this.getName() + "\t" + this.processed + " slots\t" +
+					this.steals + " steals (" + this.stolen + " slots)\t" +
+					this.time + "ms\t" +
+					(this.processed / Math.max(this.time, 1)) + " slots/ms";
+		}
+	}
+
+	/**
+	 * Chase-Lev deque of (fromBase, fromOffset, toBase, toOffset) items laid
+	 * out in a pair of arrays.  Only the owner pushes and pops at the bottom,
+	 * thieves take up to half of the visible items from the top.
+	 *
+	 * The owner pops without a CAS while top is below the item it takes, so
+	 * thieves claim one item per CAS: a bottom read before that CAS may be
+	 * stale, and a batch claimed with a single CAS could reach items the
+	 * owner has already popped.
+	 */
+	/*default*/ static final class WorkDeque {
+		private final AtomicLong top = new AtomicLong();
+		private volatile long bottom = 0;
+		private volatile Buffer buffer = new Buffer(INITIAL_CAPACITY);
+
+		public long size() {
+			return this.bottom - this.top.get();
+		}
+
+		public void push(Object fromBase, long fromOffset, Object toBase, long toOffset) {
+			long b = this.bottom;
+			Buffer buf = this.buffer;
+
+			if (b - this.top.get() >= buf.capacity)
+				buf = this.grow(buf, b);
+
+			int i = buf.index(b);
+			buf.refs[i] = fromBase;
+			buf.refs[i + 1] = toBase;
+			buf.offsets[i] = fromOffset;
+			buf.offsets[i + 1] = toOffset;
+
+			this.bottom = b + 1;
+		}
+
+		// Stores the item at refs[0..1] and offsets[0..1]
+		public boolean pop(Object[] refs, long[] offsets) {
+			long b = this.bottom - 1;
+			this.bottom = b;
+			long t = this.top.get();
+
+			if (b < t) {
+				this.bottom = t;
+				return false;
+			}
+
+			boolean ret = true;
+
+			if (b == t) {
+				// Last item, race against the thieves
+				ret = this.top.compareAndSet(t, t + 1);
+				this.bottom = t + 1;
+			}
+
+			if (ret) {
+				Buffer buf = this.buffer;
+				int i = buf.index(b);
+				refs[0] = buf.refs[i];
+				refs[1] = buf.refs[i + 1];
+				offsets[0] = buf.offsets[i];
+				offsets[1] = buf.offsets[i + 1];
+			}
+
+			return ret;
+		}
+
+		// Stores the items at refs[2k..2k+1] and offsets[2k..2k+1], returns how many
+		public int steal(Object[] refs, long[] offsets) {
+			long size = this.size();
+
+			if (size <= 0)
+				return 0;
+
+			int n = (int) Math.max(1, Math.min(MAX_STEAL_BATCH, size / 2));
+			int stolen = 0;
+
+			for (int j = 0; stolen < n; stolen++, j += 2) {
+				long t = this.top.get();
+				long b = this.bottom;
+
+				if (b - t <= 0)
+					break;
+
+				Buffer buf = this.buffer;
+				int i = buf.index(t);
+				Object fromBase = buf.refs[i];
+				Object toBase = buf.refs[i + 1];
+				long fromOffset = buf.offsets[i];
+				long toOffset = buf.offsets[i + 1];
+
+				// Lost against the owner or another thief, keep what was taken so far
+				if (!this.top.compareAndSet(t, t + 1))
+					break;
+
+				refs[j] = fromBase;
+				refs[j + 1] = toBase;
+				offsets[j] = fromOffset;
+				offsets[j + 1] = toOffset;
+			}
+
+			return stolen;
+		}
+
+		private Buffer grow(Buffer buf, long b) {
+			Buffer ret = new Buffer(buf.capacity << 1);
+
+			for (long k = this.top.get(); k < b; k++) {
+				int from = buf.index(k), to = ret.index(k);
+				ret.refs[to] = buf.refs[from];
+				ret.refs[to + 1] = buf.refs[from + 1];
+				ret.offsets[to] = buf.offsets[from];
+				ret.offsets[to + 1] = buf.offsets[from + 1];
+			}
+
+			this.buffer = ret;
+			return ret;
+		}
+
+		private static final class Buffer {
+			final int capacity;
+			final long mask;
+			final Object[] refs;
+			final long[] offsets;
+
+			Buffer(int capacity) {
+				this.capacity = capacity;
+				this.mask = capacity - 1;
+				this.refs = new Object[2 * capacity];
+				this.offsets = new long[2 * capacity];
+			}
+
+			int index(long i) {
+				return ((int) (i & this.mask)) << 1;
+			}
+		}
+	}
+}
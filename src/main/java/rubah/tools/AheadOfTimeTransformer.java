@@ -0,0 +1,107 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.List;
+
+import rubah.runtime.Version;
+import rubah.runtime.VersionManager;
+import rubah.runtime.classloader.TransformedJar;
+import rubah.runtime.state.Options;
+import rubah.tools.RubahTool.Parameters;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.converters.FileConverter;
+
+// Copies the first version jar, adding its updatable classes already transformed
+// Run with the same rubah.* system properties as the program, stale jars are ignored
+public class AheadOfTimeTransformer extends ReadWriteTool {
+	public static final String TOOL_NAME = "aot";
+
+	private Version version;
+	private List<String> transformed = new LinkedList<String>();
+
+	public static class AheadOfTimeParameters extends ReadWriteTool.ReadWriteParameters {
+		@Parameter(
+				converter=FileConverter.class,
+				description="Update descriptor of the input jar",
+				required=true,
+				names={"-d","--descriptor"})
+		protected File descriptor;
+	}
+
+	@Override
+	public void processJar() throws IOException {
+		VersionManager.getInstance().installVersion(
+				new Options()
+					.setUpdateDescriptor(((AheadOfTimeParameters)this.parameters).descriptor)
+					.setJar(this.parameters.injar));
+		VersionManager.getInstance().setRunningVersion();
+		this.version = VersionManager.getInstance().getRunningVersion();
+
+		long time = System.currentTimeMillis();
+		super.processJar();
+		time = System.currentTimeMillis() - time;
+
+		System.out.println("Transformed " + this.transformed.size() + " classes in " + time + "ms");
+	}
+
+	@Override
+	protected Parameters getParameters() {
+		this.parameters = new AheadOfTimeParameters();
+		return this.parameters;
+	}
+
+	@Override
+	protected void foundResource(String name, InputStream inputStream) throws IOException {
+		// Replaced by the ones generated now
+		if (name.startsWith(TransformedJar.PREFIX))
+			return;
+
+		super.foundResource(name, inputStream);
+	}
+
+	@Override
+	protected void foundClassFile(String name, InputStream inputStream) throws IOException {
+		// Keep the original, the analyzer and the runtime fallback read it
+		super.foundClassFile(name, inputStream);
+
+		String className = name.replaceAll("\\.class$", "").replace('/', '.');
+		String updatableName = this.version.getUpdatableName(className);
+
+		if (updatableName == null)
+			return;
+
+		this.addFileToOutJar(
+				TransformedJar.getEntryName(className),
+				VersionManager.getInstance().getClassBytes(updatableName, this.version));
+		this.transformed.add(className);
+	}
+
+	@Override
+	protected void endProcess() throws IOException {
+		this.addFileToOutJar(TransformedJar.INDEX_ENTRY, TransformedJar.getIndex(this.version, this.transformed));
+	}
+}
@@ -0,0 +1,414 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.javatuples.Pair;
+
+import rubah.framework.Clazz;
+import rubah.framework.DelegatingNamespace;
+import rubah.framework.Field;
+import rubah.framework.Method;
+import rubah.framework.Namespace;
+import rubah.framework.Type;
+import rubah.tools.UpdatableJarAnalyzer.VersionDescriptor;
+
+/*
+ * Version descriptor layout, all ints big-endian, offsets absolute:
+ *
+ * header:    magic, format version, #strings, #classes, #overloads, strings, classes, overloads
+ * strings:   offset of each string, then each string as an unsigned short length and UTF-8 bytes
+ * classes:   fixed records sorted by name, see CLASS_*, v1 records have no hash
+ * fields:    access, name, type descriptor, constant
+ * methods:   access, name, method descriptor, body MD5 (-1 for none)
+ * overloads: class index, access, name, method descriptor, overload
+ */
+public final class BinaryDescriptor {
+	public static final int MAGIC = 0x52554244;
+	public static final int FORMAT_VERSION = 2;
+	private static final int NONE = -1;
+
+	private static final int HEADER_SIZE = 32;
+	private static final int H_STRING_COUNT = 8;
+	private static final int H_CLASS_COUNT = 12;
+	private static final int H_OVERLOAD_COUNT = 16;
+	private static final int H_STRINGS = 20;
+	private static final int H_CLASSES = 24;
+	private static final int H_OVERLOADS = 28;
+
+	private static final int CLASS_RECORD_SIZE = 36;
+	private static final int V1_CLASS_RECORD_SIZE = 32;
+	private static final int CLASS_NAME = 0;
+	private static final int CLASS_PARENT = 4;
+	private static final int CLASS_FLAGS = 8;
+	private static final int CLASS_INTERFACES = 12;
+	private static final int CLASS_FIELD_COUNT = 16;
+	private static final int CLASS_FIELDS = 20;
+	private static final int CLASS_METHOD_COUNT = 24;
+	private static final int CLASS_METHODS = 28;
+	// SHA-1 of the class file, for incremental analysis
+	private static final int CLASS_HASH = 32;
+	private static final int FLAG_INTERFACE = 1;
+
+	private static final int MEMBER_RECORD_SIZE = 16;
+	private static final int OVERLOAD_RECORD_SIZE = 20;
+
+	private final ByteBuffer buf;
+	private final int version;
+	private final int classRecordSize;
+	private final String[] strings;
+
+	private BinaryDescriptor(ByteBuffer buf) {
+		this.buf = buf;
+		this.version = buf.getInt(4);
+
+		if (this.version < 1 || this.version > FORMAT_VERSION)
+			throw new Error("Unsupported version descriptor format " + this.version);
+
+		this.classRecordSize = (this.version == 1 ? V1_CLASS_RECORD_SIZE : CLASS_RECORD_SIZE);
+		this.strings = new String[buf.getInt(H_STRING_COUNT)];
+	}
+
+	public static boolean isBinary(ByteBuffer buf) {
+		return buf.limit() >= HEADER_SIZE && buf.getInt(0) == MAGIC;
+	}
+
+	public static VersionDescriptor read(ByteBuffer buf, Namespace namespace) {
+		return open(buf).read(namespace);
+	}
+
+	/*default*/ static BinaryDescriptor open(ByteBuffer buf) {
+		return new BinaryDescriptor(buf.duplicate());
+	}
+
+	private VersionDescriptor read(Namespace namespace) {
+		int classCount = this.getClassCount();
+
+		Set<String> classNames = new HashSet<String>();
+		for (int i = 0 ; i < classCount ; i++)
+			classNames.add(Type.getType(this.getClassName(i)).getClassName());
+
+		Namespace newNamespace = new DelegatingNamespace(namespace, classNames);
+
+		// Members are read from the records only when first used
+		for (int i = 0 ; i < classCount ; i++) {
+			final int index = i;
+			newNamespace.getClass(Type.getType(this.getClassName(i)), true).setMaterializer(new Clazz.Materializer() {
+				@Override
+				public void materialize(Clazz c) {
+					readMembers(index, c);
+				}
+			});
+		}
+
+		return new VersionDescriptor(newNamespace, this.readOverloads(newNamespace));
+	}
+
+	/*default*/ Map<Pair<Clazz, Method>, Integer> readOverloads(Namespace namespace) {
+		Map<Pair<Clazz, Method>, Integer> ret = new HashMap<Pair<Clazz,Method>, Integer>();
+		int overloadsOffset = this.buf.getInt(H_OVERLOADS);
+
+		for (int i = 0 ; i < this.buf.getInt(H_OVERLOAD_COUNT) ; i++) {
+			int record = overloadsOffset + i * OVERLOAD_RECORD_SIZE;
+			Clazz c = namespace.getClass(Type.getType(this.getClassName(this.buf.getInt(record))));
+			Method m = new Method(
+					this.buf.getInt(record + 4),
+					this.getString(this.buf.getInt(record + 8)),
+					this.getString(this.buf.getInt(record + 12)),
+					namespace);
+			ret.put(new Pair<Clazz, Method>(c, m), this.buf.getInt(record + 16));
+		}
+
+		return ret;
+	}
+
+	/*default*/ int getClassCount() {
+		return this.buf.getInt(H_CLASS_COUNT);
+	}
+
+	// Class descriptor
+	/*default*/ String getClassName(int index) {
+		return this.getString(this.buf.getInt(this.getClassRecord(index) + CLASS_NAME));
+	}
+
+	private int getClassRecord(int index) {
+		return this.buf.getInt(H_CLASSES) + index * this.classRecordSize;
+	}
+
+	// Index of the class with the given descriptor, -1 if not found
+	/*default*/ int findClass(String descriptor) {
+		int low = 0;
+		int high = this.getClassCount() - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = this.getClassName(mid).compareTo(descriptor);
+
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+
+		return NONE;
+	}
+
+	// Null when not recorded
+	/*default*/ String getClassHash(int index) {
+		if (this.version == 1)
+			return null;
+
+		int hash = this.buf.getInt(this.getClassRecord(index) + CLASS_HASH);
+		return (hash == NONE ? null : this.getString(hash));
+	}
+
+	/*default*/ void readMembers(int index, Clazz ret) {
+		int record = this.getClassRecord(index);
+		Namespace namespace = ret.getNamespace();
+
+		ret.setInterface((this.buf.getInt(record + CLASS_FLAGS) & FLAG_INTERFACE) != 0);
+
+		int parent = this.buf.getInt(record + CLASS_PARENT);
+		if (parent != NONE)
+			ret.setParent(namespace.getClass(Type.getType(this.getString(parent))));
+
+		int interfaces = this.buf.getInt(record + CLASS_INTERFACES);
+		for (int i = 0 ; i < this.buf.getInt(interfaces) ; i++)
+			ret.getInterfaces().add(namespace.getClass(Type.getType(this.getString(this.buf.getInt(interfaces + 4 + i * 4)))));
+
+		int fields = this.buf.getInt(record + CLASS_FIELDS);
+		for (int i = 0 ; i < this.buf.getInt(record + CLASS_FIELD_COUNT) ; i++) {
+			int field = fields + i * MEMBER_RECORD_SIZE;
+			ret.getFields().add(new Field(
+					this.buf.getInt(field),
+					this.getString(this.buf.getInt(field + 4)),
+					namespace.getClass(Type.getType(this.getString(this.buf.getInt(field + 8)))),
+					this.buf.getInt(field + 12) != 0));
+		}
+
+		int methods = this.buf.getInt(record + CLASS_METHODS);
+		for (int i = 0 ; i < this.buf.getInt(record + CLASS_METHOD_COUNT) ; i++) {
+			int method = methods + i * MEMBER_RECORD_SIZE;
+			Method m = new Method(
+					this.buf.getInt(method),
+					this.getString(this.buf.getInt(method + 4)),
+					this.getString(this.buf.getInt(method + 8)),
+					namespace);
+			int md5 = this.buf.getInt(method + 12);
+			m.setBodyMD5(md5 == NONE ? null : this.getString(md5));
+			ret.addMethod(m);
+		}
+	}
+
+	private String getString(int index) {
+		String ret = this.strings[index];
+
+		if (ret == null) {
+			int offset = this.buf.getInt(this.buf.getInt(H_STRINGS) + index * 4);
+			byte[] bytes = new byte[this.buf.getShort(offset) & 0xffff];
+			ByteBuffer data = this.buf.duplicate();
+			data.position(offset + 2);
+			data.get(bytes);
+			ret = new String(bytes, StandardCharsets.UTF_8);
+			this.strings[index] = ret;
+		}
+
+		return ret;
+	}
+
+	public static void write(VersionDescriptor descriptor, OutputStream out) throws IOException {
+		write(descriptor, Collections.<String, String>emptyMap(), out);
+	}
+
+	// Hashes of the class files, by class name
+	public static void write(VersionDescriptor descriptor, Map<String, String> classHashes, OutputStream out) throws IOException {
+		List<Clazz> classes = new ArrayList<Clazz>(descriptor.namespace.getDefinedClasses());
+
+		// Sorted, so that classes can be found by name without reading the whole table
+		Collections.sort(classes, new Comparator<Clazz>() {
+			@Override
+			public int compare(Clazz c1, Clazz c2) {
+				return c1.getASMType().getDescriptor().compareTo(c2.getASMType().getDescriptor());
+			}
+		});
+
+		Map<Clazz, Integer> classIndexes = new HashMap<Clazz, Integer>();
+		StringTable strings = new StringTable();
+		int listsSize = 0;
+
+		for (Clazz c : classes) {
+			classIndexes.put(c, classIndexes.size());
+			strings.add(c.getASMType().getDescriptor());
+			if (classHashes.containsKey(c.getFqn()))
+				strings.add(classHashes.get(c.getFqn()));
+			if (c.getParent() != null)
+				strings.add(c.getParent().getASMType().getDescriptor());
+			for (Clazz iface : c.getInterfaces())
+				strings.add(iface.getASMType().getDescriptor());
+			for (Field f : c.getFields()) {
+				strings.add(f.getName());
+				strings.add(f.getType().getASMType().getDescriptor());
+			}
+			for (Method m : c.getMethods()) {
+				strings.add(m.getName());
+				strings.add(m.getASMDesc());
+				if (m.getBodyMD5() != null)
+					strings.add(m.getBodyMD5());
+			}
+			listsSize += 4 + 4 * c.getInterfaces().size() + MEMBER_RECORD_SIZE * (c.getFields().size() + c.getMethods().size());
+		}
+
+		for (Pair<Clazz, Method> overload : descriptor.overloads.keySet()) {
+			strings.add(overload.getValue1().getName());
+			strings.add(overload.getValue1().getASMDesc());
+		}
+
+		int stringsOffset = HEADER_SIZE;
+		int classesOffset = stringsOffset + strings.size();
+		int listsOffset = classesOffset + classes.size() * CLASS_RECORD_SIZE;
+		int overloadsOffset = listsOffset + listsSize;
+
+		ByteBuffer buf = ByteBuffer.allocate(overloadsOffset + descriptor.overloads.size() * OVERLOAD_RECORD_SIZE);
+
+		buf.putInt(MAGIC);
+		buf.putInt(FORMAT_VERSION);
+		buf.putInt(strings.count());
+		buf.putInt(classes.size());
+		buf.putInt(descriptor.overloads.size());
+		buf.putInt(stringsOffset);
+		buf.putInt(classesOffset);
+		buf.putInt(overloadsOffset);
+
+		strings.write(buf, stringsOffset);
+
+		int list = listsOffset;
+		for (int i = 0 ; i < classes.size() ; i++) {
+			Clazz c = classes.get(i);
+			int record = classesOffset + i * CLASS_RECORD_SIZE;
+
+			buf.putInt(record + CLASS_NAME, strings.get(c.getASMType().getDescriptor()));
+			buf.putInt(record + CLASS_PARENT, c.getParent() == null ? NONE : strings.get(c.getParent().getASMType().getDescriptor()));
+			buf.putInt(record + CLASS_FLAGS, c.isInterface() ? FLAG_INTERFACE : 0);
+			buf.putInt(record + CLASS_HASH, classHashes.containsKey(c.getFqn()) ? strings.get(classHashes.get(c.getFqn())) : NONE);
+
+			buf.putInt(record + CLASS_INTERFACES, list);
+			buf.putInt(list, c.getInterfaces().size());
+			list += 4;
+			for (Clazz iface : c.getInterfaces()) {
+				buf.putInt(list, strings.get(iface.getASMType().getDescriptor()));
+				list += 4;
+			}
+
+			buf.putInt(record + CLASS_FIELD_COUNT, c.getFields().size());
+			buf.putInt(record + CLASS_FIELDS, list);
+			for (Field f : c.getFields()) {
+				buf.putInt(list, f.getAccess());
+				buf.putInt(list + 4, strings.get(f.getName()));
+				buf.putInt(list + 8, strings.get(f.getType().getASMType().getDescriptor()));
+				buf.putInt(list + 12, f.isConstant() ? 1 : 0);
+				list += MEMBER_RECORD_SIZE;
+			}
+
+			buf.putInt(record + CLASS_METHOD_COUNT, c.getMethods().size());
+			buf.putInt(record + CLASS_METHODS, list);
+			for (Method m : c.getMethods()) {
+				buf.putInt(list, m.getAccess());
+				buf.putInt(list + 4, strings.get(m.getName()));
+				buf.putInt(list + 8, strings.get(m.getASMDesc()));
+				buf.putInt(list + 12, m.getBodyMD5() == null ? NONE : strings.get(m.getBodyMD5()));
+				list += MEMBER_RECORD_SIZE;
+			}
+		}
+
+		int record = overloadsOffset;
+		for (Entry<Pair<Clazz, Method>, Integer> entry : descriptor.overloads.entrySet()) {
+			Method m = entry.getKey().getValue1();
+			buf.putInt(record, classIndexes.get(entry.getKey().getValue0()));
+			buf.putInt(record + 4, m.getAccess());
+			buf.putInt(record + 8, strings.get(m.getName()));
+			buf.putInt(record + 12, strings.get(m.getASMDesc()));
+			buf.putInt(record + 16, entry.getValue());
+			record += OVERLOAD_RECORD_SIZE;
+		}
+
+		out.write(buf.array());
+	}
+
+	private static class StringTable {
+		private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+		private final List<byte[]> encoded = new ArrayList<byte[]>();
+		private int dataSize;
+
+		public void add(String s) {
+			if (this.indexes.containsKey(s))
+				return;
+
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > 0xffff)
+				throw new Error("String too long for version descriptor: " + s);
+
+			this.indexes.put(s, this.encoded.size());
+			this.encoded.add(bytes);
+			this.dataSize += 2 + bytes.length;
+		}
+
+		public int get(String s) {
+			return this.indexes.get(s);
+		}
+
+		public int count() {
+			return this.encoded.size();
+		}
+
+		// Bytes taken by the offsets and the data
+		public int size() {
+			return 4 * this.encoded.size() + this.dataSize;
+		}
+
+		public void write(ByteBuffer buf, int offset) {
+			int data = offset + 4 * this.encoded.size();
+
+			for (int i = 0 ; i < this.encoded.size() ; i++) {
+				byte[] bytes = this.encoded.get(i);
+				buf.putInt(offset + 4 * i, data);
+				buf.putShort(data, (short) bytes.length);
+				for (int j = 0 ; j < bytes.length ; j++)
+					buf.put(data + 2 + j, bytes[j]);
+				data += 2 + bytes.length;
+			}
+		}
+	}
+}
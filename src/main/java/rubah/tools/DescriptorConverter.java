@@ -0,0 +1,74 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import rubah.framework.Namespace;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.converters.FileConverter;
+
+// Rewrites version descriptors of any format in the current binary format
+public class DescriptorConverter {
+	private static class ArgParser {
+		@Parameter(
+				converter=FileConverter.class,
+				description="Input descriptor",
+				names={"-i","--in"},
+				required=true)
+		private File inFile;
+
+		@Parameter(
+				converter=FileConverter.class,
+				description="Output descriptor",
+				required=true,
+				names={"-o","--out"})
+		private File outFile;
+	}
+
+	public static void main(String[] args) throws IOException {
+		ArgParser parser = new ArgParser();
+
+		JCommander argParser = new JCommander(parser);
+		try {
+			argParser.parse(args);
+		} catch (ParameterException e) {
+			System.out.println(e.getMessage());
+			argParser.usage();
+			System.exit(1);
+		}
+
+		FileOutputStream out = new FileOutputStream(parser.outFile);
+
+		try {
+			BinaryDescriptor.write(
+					UpdatableJarAnalyzer.readFile(parser.inFile, new Namespace()),
+					out);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -39,6 +39,7 @@ public class RubahTool {
 		tools.put(AnalysisPrinter.TOOL_NAME, AnalysisPrinter.class);
 		tools.put(MethodTracer.TOOL_NAME, MethodTracer.class);
 		tools.put(RubahPostProcessor.TOOL_NAME, RubahPostProcessor.class);
+		tools.put(AheadOfTimeTransformer.TOOL_NAME, AheadOfTimeTransformer.class);
 	}
 	
 	private static class BootstrapParameters {
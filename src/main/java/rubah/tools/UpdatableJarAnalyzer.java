@@ -30,13 +30,25 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.IOUtils;
 import org.javatuples.Pair;
@@ -45,9 +57,10 @@ import org.javatuples.Quintet;
 import org.javatuples.Sextet;
 import org.javatuples.Tuple;
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Opcodes;
+import org.ow2.util.base64.Base64;
 
+import rubah.bytecode.transformers.BasicClassInfoGatherer;
 import rubah.bytecode.transformers.ClassNameGatherer;
 import rubah.bytecode.transformers.DecreaseClassMethodsProtection;
 import rubah.bytecode.transformers.UpdatableClassInfoGatherer;
@@ -86,12 +99,25 @@ public class UpdatableJarAnalyzer extends ReadWriteTool implements Opcodes {
 				variableArity=true,
 				names={"-p","--packages"})
 		private List<String> packages = new LinkedList<String>();
+
+		@Parameter(
+				converter=FileConverter.class,
+				description="Descriptor of a previous analysis, only classes that changed since are analyzed again",
+				required=false,
+				names={"-b","--previous"})
+		private File previous;
 	}
 
 	private List<String> packages;
+	private File previous;
 
 	private Namespace namespace = new Namespace();
-	private ClassVisitor visitor;
+	private Map<String, byte[]> classFiles = new LinkedHashMap<String, byte[]>();
+
+	private Namespace newNamespace;
+	private BinaryDescriptor previousDescriptor;
+	private Map<String, String> classHashes = new ConcurrentHashMap<String, String>();
+	private Set<Clazz> analyzed = Collections.newSetFromMap(new ConcurrentHashMap<Clazz, Boolean>());
 
 	public static void main(String[] args) throws IOException {
 
@@ -110,6 +136,7 @@ public class UpdatableJarAnalyzer extends ReadWriteTool implements Opcodes {
 		analyzer.inFile = parser.injar;
 		analyzer.outFile = parser.outFile;
 		analyzer.packages = new LinkedList<String>();
+		analyzer.previous = parser.previous;
 
 		for (String pack : parser.packages) {
 			analyzer.packages.add(pack.replace('.', File.separatorChar));
@@ -140,52 +167,168 @@ public class UpdatableJarAnalyzer extends ReadWriteTool implements Opcodes {
 			return;
 		}
 
-		new ClassReader(inputStream).accept(this.visitor, 0);
+		this.classFiles.put(name, IOUtils.toByteArray(inputStream));
 	}
 
 	@Override
 	public void processJar() throws IOException {
-		ClassNameGatherer nameGatherer = new ClassNameGatherer();
-		this.visitor = nameGatherer;
 		super.processJar();
 
-		Namespace newNamespace =
+		ClassNameGatherer nameGatherer = new ClassNameGatherer();
+		for (byte[] bytes : this.classFiles.values()) {
+			new ClassReader(bytes).accept(nameGatherer, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		}
+
+		this.newNamespace =
 				new DelegatingNamespace(this.namespace, nameGatherer.getClassNames());
 
-		Version version = new Version(newNamespace);
+		Version version = new Version(this.newNamespace);
 
 		UpdatableClassInfoGatherer infoGatherer = new UpdatableClassInfoGatherer(version);
 
-		this.visitor = new DecreaseClassMethodsProtection(infoGatherer);
-		super.processJar();
+		if (this.previous != null) {
+			this.previousDescriptor = BinaryDescriptor.open(mapFile(this.previous));
+		}
+
+		this.analyzeClasses();
+
+		Map<Pair<Clazz, Method>, Integer> overloads;
+
+		// Erasing updatable types depends on the whole set of classes
+		if (this.previousDescriptor != null && this.isSameClasses(nameGatherer.getClassNames())) {
+			Set<Clazz> roots = new HashSet<Clazz>();
+			LinkedList<Clazz> changed = new LinkedList<Clazz>();
+			for (Clazz c : this.analyzed) {
+				if (c.getNamespace().equals(this.newNamespace)) {
+					changed.add(c);
+				}
+			}
+
+			// Overloads of a hierarchy start from the methods of its interfaces,
+			// so implementors of a changed interface are analyzed again too
+			Map<Clazz, Set<Clazz>> implementors = UpdatableClassInfoGatherer.computeInterfaces(this.newNamespace);
+			Set<Clazz> visited = new HashSet<Clazz>(changed);
+			while (!changed.isEmpty()) {
+				Clazz c = changed.removeFirst();
+				roots.add(this.getHierarchyRoot(c));
+
+				if (!c.isInterface()) {
+					continue;
+				}
+
+				for (Clazz implementor : implementors.get(c)) {
+					if (visited.add(implementor)) {
+						changed.add(implementor);
+					}
+				}
+			}
+
+			infoGatherer.computeOverloads(roots);
+			overloads = infoGatherer.getOverloads();
+
+			for (Entry<Pair<Clazz, Method>, Integer> entry : this.previousDescriptor.readOverloads(this.newNamespace).entrySet()) {
+				if (!roots.contains(this.getHierarchyRoot(entry.getKey().getValue0()))) {
+					overloads.put(entry.getKey(), entry.getValue());
+				}
+			}
+		} else {
+			infoGatherer.computeOverloads();
+			overloads = infoGatherer.getOverloads();
+		}
+
+		if (this.previousDescriptor != null) {
+			System.out.println("Analyzed " + this.analyzed.size() + " changed classes out of " + this.classFiles.size());
+		}
 
-		infoGatherer.computeOverloads();
 		this.writeOutFile(
 				new VersionDescriptor(
-						newNamespace,
-						infoGatherer.getOverloads()));
+						this.newNamespace,
+						overloads));
 	}
 
-	private void writeOutFile(VersionDescriptor descriptor) throws IOException {
-		ObjectOutputStream outStream =
-				new ObjectOutputStream(new FileOutputStream(this.outFile));
+	private void analyzeClasses() {
+		LinkedList<Callable<Void>> tasks = new LinkedList<>();
+
+		for (final byte[] bytes : this.classFiles.values()) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					analyzeClass(bytes);
+					return null;
+				}
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			for (Future<Void> f : pool.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new Error(e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private void analyzeClass(byte[] bytes) {
+		ClassReader reader = new ClassReader(bytes);
+		Clazz c = this.newNamespace.getClass(Type.getObjectType(reader.getClassName()));
+		String hash = computeHash(bytes);
+
+		this.classHashes.put(c.getFqn(), hash);
+
+		if (this.previousDescriptor != null) {
+			int index = this.previousDescriptor.findClass(c.getASMType().getDescriptor());
 
-		AnalysisData data = new AnalysisData();
-		for (Clazz c : descriptor.namespace.getDefinedClasses()) {
-			data.updatableClasses.add(new ClassData(c));
+			// Unchanged class file, reuse the previous analysis
+			if (index >= 0 && hash.equals(this.previousDescriptor.getClassHash(index))) {
+				this.previousDescriptor.readMembers(index, c);
+				return;
+			}
 		}
 
-		for (Entry<Pair<Clazz, Method>, Integer> entry : descriptor.overloads.entrySet()) {
-			data.overloads.put(
-					new Pair<ClassData, MethodData>(
-							new ClassData(entry.getKey().getValue0()),
-							new MethodData(entry.getKey().getValue1())),
-					entry.getValue());
+		reader.accept(new DecreaseClassMethodsProtection(new BasicClassInfoGatherer(this.newNamespace)), 0);
+		this.analyzed.add(c);
+	}
+
+	private boolean isSameClasses(Set<String> classNames) {
+		if (this.previousDescriptor.getClassCount() != classNames.size()) {
+			return false;
+		}
+
+		for (int i = 0 ; i < this.previousDescriptor.getClassCount() ; i++) {
+			if (!classNames.contains(Type.getType(this.previousDescriptor.getClassName(i)).getClassName())) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private Clazz getHierarchyRoot(Clazz c) {
+		while (c.getParent().getNamespace().equals(this.newNamespace)) {
+			c = c.getParent();
+		}
+
+		return c;
+	}
+
+	private static String computeHash(byte[] bytes) {
+		try {
+			return new String(Base64.encode(MessageDigest.getInstance("SHA-1").digest(bytes)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error(e);
 		}
+	}
 
-		outStream.writeObject(data);
+	private void writeOutFile(VersionDescriptor descriptor) throws IOException {
+		FileOutputStream out = new FileOutputStream(this.outFile);
 
-		outStream.close();
+		try {
+			BinaryDescriptor.write(descriptor, this.classHashes, out);
+		} finally {
+			out.close();
+		}
 	}
 
 	public static class VersionDescriptor {
@@ -200,13 +343,25 @@ public class UpdatableJarAnalyzer extends ReadWriteTool implements Opcodes {
 	}
 
 	public static VersionDescriptor readFile(File inJar, Namespace namespace) throws FileNotFoundException, IOException {
-		return readFile(IOUtils.toByteArray(new FileInputStream(inJar)), namespace);
+		return readFile(mapFile(inJar), namespace);
 	}
 
 	public static VersionDescriptor readFile(byte[] updateDescriptor, Namespace namespace)
 			throws IOException {
+		return readFile(ByteBuffer.wrap(updateDescriptor), namespace);
+	}
+
+	public static VersionDescriptor readFile(ByteBuffer updateDescriptor, Namespace namespace)
+			throws IOException {
+		if (BinaryDescriptor.isBinary(updateDescriptor))
+			return BinaryDescriptor.read(updateDescriptor, namespace);
+
+		// Old format, serialized AnalysisData
+		byte[] bytes = new byte[updateDescriptor.limit()];
+		updateDescriptor.duplicate().get(bytes);
+
 		ObjectInputStream outStream =
-				new ObjectInputStream(new ByteArrayInputStream(updateDescriptor));
+				new ObjectInputStream(new ByteArrayInputStream(bytes));
 
 		Set<Clazz> classes = new HashSet<Clazz>();
 		Map<Pair<Clazz, Method>, Integer> overloads =
@@ -257,6 +412,17 @@ public class UpdatableJarAnalyzer extends ReadWriteTool implements Opcodes {
 		return new VersionDescriptor(newNamespace, overloads);
 	}
 
+	public static ByteBuffer mapFile(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		try {
+			// Stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+	}
+
 	private static abstract class ElementData<T extends Tuple> implements Serializable {
 		protected T tuple;
 
@@ -27,8 +27,11 @@ import java.util.LinkedList;
 import java.util.List;
 
 import rubah.runtime.state.strategy.ArrayStrategy;
+import rubah.runtime.state.strategy.BackgroundLazyMonolithic;
+import rubah.runtime.state.strategy.ConcurrentFlatMapStrategy;
 import rubah.runtime.state.strategy.ConcurrentMapStrategy;
 import rubah.runtime.state.strategy.EagerLazy;
+import rubah.runtime.state.strategy.FlatMapStrategy;
 import rubah.runtime.state.strategy.ForkJoinStrategy;
 import rubah.runtime.state.strategy.ForwardFieldStrategy;
 import rubah.runtime.state.strategy.FullyLazyMonolithic;
@@ -36,8 +39,10 @@ import rubah.runtime.state.strategy.IdentityMapStrategy;
 import rubah.runtime.state.strategy.Lazy;
 import rubah.runtime.state.strategy.MappingStrategy;
 import rubah.runtime.state.strategy.MigrationStrategy;
+import rubah.runtime.state.strategy.NonBlockingMapStrategy;
 import rubah.runtime.state.strategy.SingleThreaded;
 import rubah.runtime.state.strategy.ThreadPoolStrategy;
+import rubah.runtime.state.strategy.WorkStealingStrategy;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
@@ -59,26 +64,31 @@ public class ParsingArguments extends Filter {
 			SINGLE_CONCURRENT,
 			THREAD_POOL,
 			FORK_JOIN,
+			WORK_STEALING,
 			FULL_LAZY,
 			LAZY,
-			EAGER_LAZY
+			EAGER_LAZY,
+			BACKGROUND_LAZY
 		}
 
 		public enum MappingStrategyArgument {
 			IDENTITY_MAP,
 			CONCURRENT_MAP,
+			FLAT_MAP,
+			CONCURRENT_FLAT_MAP,
+			NON_BLOCKING_MAP,
 			FORWARD_FIELD,
 			ARRAY,
 		}
 
 		@Parameter(
-				description="Strategy to traverse/migrate the program state: SINGLE_IDENTITY, SINGLE_CONCURRENT, THREAD_POOL, FORK_JOIN, LAZY, FULL_LAZY, or EAGER_LAZY",
+				description="Strategy to traverse/migrate the program state: SINGLE_IDENTITY, SINGLE_CONCURRENT, THREAD_POOL, FORK_JOIN, WORK_STEALING, LAZY, FULL_LAZY, EAGER_LAZY, or BACKGROUND_LAZY",
 				names={"-s","--strategy"},
 				required=false)
 		protected MigrationStrategyArgument migrationStrategy = MigrationStrategyArgument.SINGLE_IDENTITY;
 
 		@Parameter(
-				description="Strategy to map the old objects to new ones: IDENTITY_MAP, CONCURRENT_MAP, FORWARD_FIELD, or ARRAY",
+				description="Strategy to map the old objects to new ones: IDENTITY_MAP, CONCURRENT_MAP, FLAT_MAP, CONCURRENT_FLAT_MAP, NON_BLOCKING_MAP, FORWARD_FIELD, or ARRAY",
 				names={"-m","--map-strategy"},
 				variableArity=true,
 				required=false)
@@ -91,6 +101,12 @@ public class ParsingArguments extends Filter {
 				required=false)
 		protected int nThreads = Runtime.getRuntime().availableProcessors();
 
+		@Parameter(
+				description="Objects per second converted in the background by BACKGROUND_LAZY, 0 for no limit",
+				names={"-r","--background-rate"},
+				required=false)
+		protected int backgroundRate = 100000;
+
 		@Parameter(
 				converter=FileConverter.class,
 				description="Compiled update class file",
@@ -142,6 +158,15 @@ public class ParsingArguments extends Filter {
 					case CONCURRENT_MAP:
 						mappingStrategy = new ConcurrentMapStrategy();
 						break;
+					case FLAT_MAP:
+						mappingStrategy = new FlatMapStrategy();
+						break;
+					case CONCURRENT_FLAT_MAP:
+						mappingStrategy = new ConcurrentFlatMapStrategy();
+						break;
+					case NON_BLOCKING_MAP:
+						mappingStrategy = new NonBlockingMapStrategy();
+						break;
 					case FORWARD_FIELD:
 						mappingStrategy = new ForwardFieldStrategy(mappingStrategy);
 						break;
@@ -165,6 +190,9 @@ public class ParsingArguments extends Filter {
 				case FORK_JOIN:
 					migrationStrategy = new ForkJoinStrategy(mappingStrategy, this.nThreads);
 					break;
+				case WORK_STEALING:
+					migrationStrategy = new WorkStealingStrategy(mappingStrategy, this.nThreads);
+					break;
 				case LAZY:
 					migrationStrategy = new Lazy(mappingStrategy);
 					state.setLazy(true);
@@ -178,6 +206,10 @@ public class ParsingArguments extends Filter {
 					migrationStrategy = new EagerLazy(mappingStrategy, this.nThreads);
 					state.setFullyLazy(true);
 					break;
+				case BACKGROUND_LAZY:
+					migrationStrategy = new BackgroundLazyMonolithic(this.backgroundRate);
+					state.setFullyLazy(true);
+					break;
 			}
 
 			state.setMigrationStrategy(migrationStrategy);
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.bytecode.transformers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import rubah.framework.Namespace;
+import rubah.tools.BootstrapJarProcessor;
+import rubah.framework.Type;
+import rubah.runtime.state.migrator.UnsafeUtils;
+
+public class AddGettersAndSettersTest {
+
+	public static class Finals {
+		public final int i;
+		public final long l;
+		public final double d;
+		public final String s;
+		public static final Object STATIC = new Object();
+
+		public Finals() {
+			this.i = -1;
+			this.l = -1L;
+			this.d = -1D;
+			this.s = null;
+		}
+	}
+
+	@Test
+	public void finalSettersCacheTheOffset() throws Exception {
+		Class<?> c = transform(Finals.class);
+		Object o = c.newInstance();
+
+		for (int round = 0; round < 2; round++) {
+			set(c, o, "i", int.class, 41 + round);
+			set(c, o, "l", long.class, (1L << 40) + round);
+			set(c, o, "d", double.class, 0.5 + round);
+			set(c, o, "s", String.class, "s" + round);
+
+			assertEquals(41 + round, c.getField("i").get(o));
+			assertEquals((1L << 40) + round, c.getField("l").get(o));
+			assertEquals(0.5 + round, c.getField("d").get(o));
+			assertEquals("s" + round, c.getField("s").get(o));
+
+			for (String name : new String[] { "i", "l", "d", "s" })
+				assertEquals(name, UnsafeUtils.getUnsafe().objectFieldOffset(c.getField(name)), getOffset(c, name));
+		}
+
+		// Static final fields keep the reflective lookup
+		for (int round = 0; round < 2; round++) {
+			Object value = new Object();
+			set(c, null, "STATIC", Object.class, value);
+			assertSame(value, c.getField("STATIC").get(null));
+		}
+	}
+
+	@Test
+	public void offsetIsLookedUpOnFirstUse() throws Exception {
+		Class<?> c = transform(Finals.class);
+
+		assertEquals(0L, getOffset(c, "l"));
+		set(c, c.newInstance(), "l", long.class, 1L);
+		assertEquals(UnsafeUtils.getUnsafe().objectFieldOffset(c.getField("l")), getOffset(c, "l"));
+	}
+
+	private static void set(Class<?> c, Object o, String field, Class<?> type, Object value) throws Exception {
+		c.getMethod(AddGettersAndSetters.generateSetterName(Type.getType(c), field), type).invoke(o, value);
+	}
+
+	private static long getOffset(Class<?> c, String field) throws Exception {
+		String setterName = AddGettersAndSetters.generateSetterName(Type.getType(c), field);
+		java.lang.reflect.Field offset = c.getDeclaredField(
+				AddGettersAndSetters.OFFSET_PREFFIX + setterName.substring(AddGettersAndSetters.SETTER_PREFFIX.length()));
+		offset.setAccessible(true);
+		return (Long) offset.get(null);
+	}
+
+	// Defines a transformed copy of c in a loader of its own
+	/*default*/ static Class<?> transform(Class<?> c) throws IOException {
+		byte[] bytes;
+		try (InputStream in = c.getResourceAsStream(c.getName().substring(c.getName().lastIndexOf('.') + 1) + ".class")) {
+			bytes = IOUtils.toByteArray(in);
+		}
+
+		Namespace namespace = new Namespace();
+		new ClassReader(bytes).accept(new BasicClassInfoGatherer(namespace), 0);
+
+		// The loader writes no stack map frames, only classes older than 1.7 verify without them
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		ClassVisitor visitor = new ClassVisitor(BootstrapJarProcessor.ASM5, writer) {
+			@Override
+			public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+				super.visit(Opcodes.V1_6, access, name, signature, superName, interfaces);
+			}
+		};
+		new ClassReader(bytes).accept(new AddGettersAndSetters(namespace, visitor), ClassReader.SKIP_FRAMES);
+
+		final byte[] transformed = writer.toByteArray();
+		return new ClassLoader(c.getClassLoader()) {
+			Class<?> define(String name) {
+				return this.defineClass(name, transformed, 0, transformed.length);
+			}
+		}.define(c.getName());
+	}
+}
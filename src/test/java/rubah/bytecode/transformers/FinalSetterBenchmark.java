@@ -0,0 +1,102 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.bytecode.transformers;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import rubah.bytecode.transformers.AddGettersAndSettersTest.Finals;
+import rubah.framework.Type;
+import rubah.runtime.state.migrator.UnsafeUtils;
+import sun.misc.Unsafe;
+
+/**
+ * Final-field conversion throughput: sets the four final instance fields of
+ * Finals on every object of an array, once through the generated setters and
+ * once looking each field up on every call, as the setters used to.
+ *
+ * Not a test, run it by hand with the test classpath:
+ *   java rubah.bytecode.transformers.FinalSetterBenchmark [objects]
+ */
+public class FinalSetterBenchmark {
+	private static final Unsafe unsafe = UnsafeUtils.getUnsafe();
+	private static final int ROUNDS = 10;
+	private static final Class<?> c;
+	// Constant, so that the JIT inlines the generated setters
+	private static final MethodHandle i, l, d, s;
+
+	static {
+		try {
+			c = AddGettersAndSettersTest.transform(Finals.class);
+			i = setter("i", int.class);
+			l = setter("l", long.class);
+			d = setter("d", double.class);
+			s = setter("s", String.class);
+		} catch (Exception e) {
+			throw new Error(e);
+		}
+	}
+
+	public static void main(String[] args) throws Throwable {
+		int n = (args.length > 0 ? Integer.parseInt(args[0]) : 1000000);
+		Object[] objs = new Object[n];
+
+		for (int k = 0; k < n; k++)
+			objs[k] = c.newInstance();
+
+		for (int round = 0; round < ROUNDS; round++) {
+			long time = System.nanoTime();
+			for (Object o : objs)
+				cached(o);
+			long cached = System.nanoTime() - time;
+
+			time = System.nanoTime();
+			for (Object o : objs)
+				lookup(o);
+			long lookup = System.nanoTime() - time;
+
+			System.out.println(
+					"Round " + round + ": cached " + (cached / n) + " ns/object, lookup " + (lookup / n) + " ns/object");
+		}
+	}
+
+	private static void cached(Object o) throws Throwable {
+		i.invoke(o, 1);
+		l.invoke(o, 2L);
+		d.invoke(o, 3D);
+		s.invoke(o, "4");
+	}
+
+	private static void lookup(Object o) throws Exception {
+		unsafe.putInt(o, unsafe.objectFieldOffset(c.getDeclaredField("i")), 1);
+		unsafe.putLong(o, unsafe.objectFieldOffset(c.getDeclaredField("l")), 2L);
+		unsafe.putDouble(o, unsafe.objectFieldOffset(c.getDeclaredField("d")), 3D);
+		unsafe.putObject(o, unsafe.objectFieldOffset(c.getDeclaredField("s")), "4");
+	}
+
+	private static MethodHandle setter(String field, Class<?> type) throws Exception {
+		return MethodHandles.publicLookup().findVirtual(
+				c,
+				AddGettersAndSetters.generateSetterName(Type.getType(c), field),
+				MethodType.methodType(void.class, type)).asType(MethodType.methodType(void.class, Object.class, type));
+	}
+}
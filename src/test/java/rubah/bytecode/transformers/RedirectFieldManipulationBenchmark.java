@@ -0,0 +1,84 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.bytecode.transformers;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.objectweb.asm.ClassReader;
+
+import rubah.framework.Namespace;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Rewriting cost of RedirectFieldManipulation: transforms every class of the
+ * given jars, with and without the local source walk, and prints the best CPU
+ * time and the bytes allocated per pass.
+ *
+ * Not a test, run it by hand with the test classpath:
+ *   java rubah.bytecode.transformers.RedirectFieldManipulationBenchmark [jar...]
+ * Without arguments it transforms the ASM jar.
+ */
+public class RedirectFieldManipulationBenchmark {
+	private static final int ROUNDS = 15;
+	private static final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		List<byte[]> classes = new ArrayList<byte[]>();
+
+		if (args.length == 0)
+			args = new String[] { RedirectFieldManipulationTest.getJar(ClassReader.class) };
+
+		for (String jar : args)
+			classes.addAll(RedirectFieldManipulationTest.readJar(jar));
+
+		Namespace namespace = RedirectFieldManipulationTest.gather(classes);
+
+		System.out.println(classes.size() + " classes");
+		run("Local sources", true, classes, namespace);
+		run("Full analysis", false, classes, namespace);
+	}
+
+	private static void run(String name, boolean localSources, List<byte[]> classes, Namespace namespace) {
+		long thread = Thread.currentThread().getId();
+		long best = Long.MAX_VALUE;
+		long allocated = Long.MAX_VALUE;
+
+		RedirectFieldManipulation.localSources = localSources;
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				long time = threads.getCurrentThreadCpuTime();
+				long bytes = threads.getThreadAllocatedBytes(thread);
+
+				RedirectFieldManipulationTest.transform(classes, namespace);
+
+				best = Math.min(best, threads.getCurrentThreadCpuTime() - time);
+				allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - bytes);
+			}
+		} finally {
+			RedirectFieldManipulation.localSources = true;
+		}
+
+		System.out.println(name + ": best " + (best / 1000000) + " ms, " + (allocated / (1024 * 1024)) + " MB allocated per pass");
+	}
+}
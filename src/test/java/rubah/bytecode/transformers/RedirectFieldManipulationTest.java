@@ -0,0 +1,225 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.bytecode.transformers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import rubah.framework.Namespace;
+import rubah.framework.Type;
+import rubah.runtime.ProxyChecks;
+
+public class RedirectFieldManipulationTest {
+	private static final String FIXTURE = Type.getType(Fixture.class).getInternalName();
+	private static final String PROXY_CHECKS = Type.getType(ProxyChecks.class).getInternalName();
+
+	public static class Fixture {
+		public int x;
+
+		public Class<?> kind(Object o) {
+			return o.getClass();
+		}
+
+		public void call(Fixture f) {
+			f.priv();
+		}
+
+		public int own() {
+			return this.x;
+		}
+
+		private void priv() {
+			// Empty
+		}
+	}
+
+	@Test
+	public void proxyCheckIsACall() throws IOException {
+		MethodNode kind = getMethod(transform(Fixture.class), "kind");
+
+		assertEquals(
+				opcodes(Opcodes.ALOAD, Opcodes.INVOKESTATIC, Opcodes.INVOKEVIRTUAL, Opcodes.ARETURN),
+				opcodes(kind));
+		assertCheck(kind.instructions.getFirst());
+	}
+
+	@Test
+	public void proxyCheckCastsBackToTheOwner() throws IOException {
+		MethodNode call = getMethod(transform(Fixture.class), "call");
+
+		assertEquals(
+				opcodes(Opcodes.ALOAD, Opcodes.INVOKESTATIC, Opcodes.CHECKCAST, Opcodes.INVOKESPECIAL, Opcodes.RETURN),
+				opcodes(call));
+		AbstractInsnNode check = assertCheck(call.instructions.getFirst());
+		assertEquals(FIXTURE, ((TypeInsnNode) check.getNext()).desc);
+	}
+
+	@Test
+	public void callersGrowByTheCallOnly() throws IOException {
+		ClassNode before = read(Fixture.class);
+		ClassNode after = transform(Fixture.class);
+
+		// INVOKESTATIC is 3 bytes, CHECKCAST another 3
+		assertEquals(getCodeSize(getMethod(before, "kind")) + 3, getCodeSize(getMethod(after, "kind")));
+		assertEquals(getCodeSize(getMethod(before, "call")) + 6, getCodeSize(getMethod(after, "call")));
+		// Accesses through this are left alone
+		assertEquals(getCodeSize(getMethod(before, "own")), getCodeSize(getMethod(after, "own")));
+	}
+
+	@Test
+	public void localSourcesMatchTheAnalysis() throws Exception {
+		List<byte[]> classes = readJar(getJar(ClassReader.class));
+		Namespace namespace = gather(classes);
+
+		try {
+			RedirectFieldManipulation.localSources = false;
+			List<byte[]> expected = transform(classes, namespace);
+			RedirectFieldManipulation.localSources = true;
+			List<byte[]> actual = transform(classes, namespace);
+
+			for (int i = 0; i < classes.size(); i++)
+				assertTrue(new ClassReader(classes.get(i)).getClassName(), Arrays.equals(expected.get(i), actual.get(i)));
+		} finally {
+			RedirectFieldManipulation.localSources = true;
+		}
+	}
+
+	private static AbstractInsnNode assertCheck(AbstractInsnNode load) {
+		MethodInsnNode check = (MethodInsnNode) load.getNext();
+		assertEquals(PROXY_CHECKS, check.owner);
+		assertEquals(ProxyChecks.CHECK_NAME, check.name);
+		return check;
+	}
+
+	private static List<Integer> opcodes(int ... opcodes) {
+		List<Integer> ret = new ArrayList<Integer>();
+		for (int opcode : opcodes)
+			ret.add(opcode);
+		return ret;
+	}
+
+	private static List<Integer> opcodes(MethodNode method) {
+		List<Integer> ret = new ArrayList<Integer>();
+		for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext())
+			if (insn.getOpcode() >= 0)
+				ret.add(insn.getOpcode());
+		return ret;
+	}
+
+	private static int getCodeSize(MethodNode method) {
+		CodeSizeEvaluator evaluator = new CodeSizeEvaluator(null);
+		method.instructions.accept(evaluator);
+		return evaluator.getMaxSize();
+	}
+
+	private static MethodNode getMethod(ClassNode node, String name) {
+		for (MethodNode method : node.methods)
+			if (method.name.equals(name))
+				return method;
+		throw new Error("No method " + name + " in " + node.name);
+	}
+
+	private static ClassNode read(Class<?> c) throws IOException {
+		ClassNode node = new ClassNode();
+		new ClassReader(getBytes(c)).accept(node, ClassReader.SKIP_FRAMES);
+		return node;
+	}
+
+	private static ClassNode transform(Class<?> c) throws IOException {
+		assertTrue("Run without -D" + ProxyChecks.INVOKE_DYNAMIC_PROPERTY, !ProxyChecks.INVOKE_DYNAMIC);
+
+		byte[] bytes = getBytes(c);
+		Namespace namespace = new Namespace();
+		new ClassReader(bytes).accept(new BasicClassInfoGatherer(namespace), 0);
+
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		new ClassReader(bytes).accept(new RedirectFieldManipulation(namespace, writer), ClassReader.SKIP_FRAMES);
+
+		ClassNode node = new ClassNode();
+		new ClassReader(writer.toByteArray()).accept(node, ClassReader.SKIP_DEBUG);
+		return node;
+	}
+
+	/*default*/ static Namespace gather(List<byte[]> classes) {
+		Namespace namespace = new Namespace();
+		for (byte[] bytes : classes)
+			new ClassReader(bytes).accept(new BasicClassInfoGatherer(namespace), 0);
+		return namespace;
+	}
+
+	/*default*/ static List<byte[]> transform(List<byte[]> classes, Namespace namespace) {
+		List<byte[]> ret = new ArrayList<byte[]>(classes.size());
+		for (byte[] bytes : classes) {
+			ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+			new ClassReader(bytes).accept(new RedirectFieldManipulation(namespace, writer), ClassReader.SKIP_FRAMES);
+			ret.add(writer.toByteArray());
+		}
+		return ret;
+	}
+
+	/*default*/ static String getJar(Class<?> c) throws URISyntaxException {
+		return new File(c.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+	}
+
+	/*default*/ static List<byte[]> readJar(String jar) throws IOException {
+		List<byte[]> ret = new ArrayList<byte[]>();
+		try (ZipFile zip = new ZipFile(jar)) {
+			for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = entries.nextElement();
+				if (!entry.getName().endsWith(".class"))
+					continue;
+				try (InputStream in = zip.getInputStream(entry)) {
+					ret.add(IOUtils.toByteArray(in));
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static byte[] getBytes(Class<?> c) throws IOException {
+		try (InputStream in = c.getResourceAsStream(c.getName().substring(c.getName().lastIndexOf('.') + 1) + ".class")) {
+			return IOUtils.toByteArray(in);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.runtime.state.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.Test;
+
+public class QuiescenceCounterTest {
+	private static final int CHECKS = 20000;
+	private static final int MAX_THREADS = 64;
+	private static final int SHORT_LIVED_THREADS = 1000;
+
+	@Test
+	public void neverQuiescentWhileInFlight() throws InterruptedException {
+		for (int nThreads = 1; nThreads <= MAX_THREADS; nThreads *= 2)
+			this.stress(nThreads);
+	}
+
+	@Test
+	public void exitedThreadsAreFolded() throws InterruptedException {
+		final QuiescenceCounter counter = new QuiescenceCounter();
+
+		for (int i = 0; i < SHORT_LIVED_THREADS; i++) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					counter.increment();
+					counter.increment();
+					counter.decrement();
+					counter.decrement();
+				}
+			};
+			t.start();
+			t.join();
+		}
+
+		assertEquals(SHORT_LIVED_THREADS, counter.countCells());
+		assertEquals(2 * SHORT_LIVED_THREADS, counter.getQuiescentTotal());
+		assertEquals(0, counter.countCells());
+
+		// The base totals still count, an in-flight task keeps it busy
+		counter.increment();
+		assertEquals(-1, counter.getQuiescentTotal());
+		counter.decrement();
+		assertEquals(2 * SHORT_LIVED_THREADS + 1, counter.getQuiescentTotal());
+		assertEquals(1, counter.countCells());
+	}
+
+	private void stress(final int nThreads) throws InterruptedException {
+		final QuiescenceCounter counter = new QuiescenceCounter();
+		// Set while a worker is between its increment and its decrement
+		final AtomicIntegerArray inside = new AtomicIntegerArray(nThreads);
+		// Bumped every time a worker leaves
+		final AtomicLongArray exits = new AtomicLongArray(nThreads);
+		final long[] tasks = new long[nThreads];
+		final boolean[] done = new boolean[1];
+
+		Thread[] workers = new Thread[nThreads];
+		for (int i = 0; i < nThreads; i++) {
+			final int id = i;
+			workers[i] = new Thread() {
+				@Override
+				public void run() {
+					for (long n = 0;; n++) {
+						synchronized (done) {
+							if (done[0]) {
+								tasks[id] = n;
+								return;
+							}
+						}
+
+						counter.increment();
+						inside.set(id, 1);
+						for (int spin = (int) (n % 64); spin > 0; spin--)
+							Thread.yield();
+						inside.set(id, 0);
+						exits.incrementAndGet(id);
+						counter.decrement();
+					}
+				}
+			};
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+
+		int[] insideBefore = new int[nThreads];
+		long[] exitsBefore = new long[nThreads];
+
+		try {
+			for (int check = 0; check < CHECKS; check++) {
+				for (int i = 0; i < nThreads; i++) {
+					insideBefore[i] = inside.get(i);
+					exitsBefore[i] = exits.get(i);
+				}
+
+				long total = counter.getQuiescentTotal();
+
+				// A worker inside before and after the scan, without leaving in between, was in flight during all of it
+				for (int i = 0; i < nThreads; i++)
+					if (insideBefore[i] == 1 && inside.get(i) == 1 && exits.get(i) == exitsBefore[i])
+						assertEquals(nThreads + " threads, worker " + i + " in flight", -1, total);
+			}
+		} finally {
+			synchronized (done) {
+				done[0] = true;
+			}
+		}
+
+		long submitted = 0;
+		for (int i = 0; i < nThreads; i++) {
+			workers[i].join();
+			submitted += tasks[i];
+		}
+
+		assertTrue(counter.isQuiescent());
+		assertEquals(submitted, counter.getQuiescentTotal());
+	}
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ *  	Copyright 2014,
+ *  		Luis Pina <luis@luispina.me>,
+ *  		Michael Hicks <mwh@cs.umd.edu>
+ *  	
+ *  	This file is part of Rubah.
+ *
+ *     Rubah is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Rubah is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Rubah.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package rubah.runtime.state.strategy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import rubah.runtime.state.strategy.WorkStealingStrategy.WorkDeque;
+
+public class WorkDequeTest {
+	private static final int ITEMS = 1000000;
+	private static final int THIEVES = 4;
+
+	@Test
+	public void eachItemIsTakenOnce() throws InterruptedException {
+		final WorkDeque deque = new WorkDeque();
+		final AtomicIntegerArray seen = new AtomicIntegerArray(ITEMS);
+		final Object from = new Object(), to = new Object();
+		final boolean[] done = new boolean[1];
+
+		Thread[] thieves = new Thread[THIEVES];
+		for (int i = 0; i < THIEVES; i++) {
+			thieves[i] = new Thread() {
+				@Override
+				public void run() {
+					Object[] refs = new Object[2 * WorkStealingStrategy.MAX_STEAL_BATCH];
+					long[] offsets = new long[2 * WorkStealingStrategy.MAX_STEAL_BATCH];
+
+					while (true) {
+						int n = deque.steal(refs, offsets);
+						for (int j = 0; j < 2 * n; j += 2)
+							take(seen, refs, offsets, j, from, to);
+
+						if (n == 0) {
+							synchronized (done) {
+								if (done[0] && deque.size() <= 0)
+									return;
+							}
+							Thread.yield();
+						}
+					}
+				}
+			};
+			thieves[i].start();
+		}
+
+		// Owner, keeps the deque short so that pops and steals race for the same items
+		// and pushes a long run now and then so that the buffer grows
+		Random random = new Random(0);
+		Object[] refs = new Object[2];
+		long[] offsets = new long[2];
+		int next = 0;
+
+		while (next < ITEMS) {
+			int burst = (random.nextInt(64) == 0 ? 5000 : 1 + random.nextInt(512));
+			for (int k = 0; k < burst && next < ITEMS; k++, next++)
+				deque.push(from, next, to, -next);
+
+			int pops = (random.nextBoolean() ? burst : random.nextInt(burst + 1));
+			for (int k = 0; k < pops && deque.pop(refs, offsets); k++)
+				take(seen, refs, offsets, 0, from, to);
+		}
+
+		while (deque.pop(refs, offsets))
+			take(seen, refs, offsets, 0, from, to);
+
+		synchronized (done) {
+			done[0] = true;
+		}
+
+		for (Thread thief : thieves)
+			thief.join();
+
+		for (int i = 0; i < ITEMS; i++)
+			assertEquals("Item " + i, 1, seen.get(i));
+	}
+
+	private static void take(AtomicIntegerArray seen, Object[] refs, long[] offsets, int j, Object from, Object to) {
+		assertEquals(from, refs[j]);
+		assertEquals(to, refs[j + 1]);
+		assertEquals(offsets[j], -offsets[j + 1]);
+		seen.incrementAndGet((int) offsets[j]);
+	}
+}